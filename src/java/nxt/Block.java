@@ -47,4 +47,9 @@ public interface Block {
 
     JSONObject getJSONObject();
 
+    /**
+     * Returns the JSON text of getJSONObject(), which for a signed block is only serialized once
+     */
+    String getJSONString();
+
 }
@@ -9,10 +9,140 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
 
 final class BlockDb {
 
+    /**
+     * The last Constants.MAX_ROLLBACK blocks, with their transactions loaded, indexed by height modulo the cache size
+     * and by id. Blocks are added by addBlock and removed when their rows are deleted. A cached block above the height
+     * of the last block is not served, as it may be from a transaction not yet committed or already rolled back.
+     */
+    private static final BlockImpl[] blockCache = new BlockImpl[Constants.MAX_ROLLBACK];
+    private static final Map<Long,BlockImpl> blockCacheById = new HashMap<>();
+
+    static BlockImpl getCachedBlock(long blockId) {
+        synchronized (blockCache) {
+            BlockImpl block = blockCacheById.get(blockId);
+            return block != null && block.getHeight() <= BlockchainImpl.getInstance().getHeight() ? block : null;
+        }
+    }
+
+    private static BlockImpl getCachedBlockAtHeight(int height) {
+        synchronized (blockCache) {
+            BlockImpl block = blockCache[height % blockCache.length];
+            return block != null && block.getHeight() == height && height <= BlockchainImpl.getInstance().getHeight() ? block : null;
+        }
+    }
+
+    /**
+     * Returns the highest block between fromHeight and toHeight with a timestamp not after the given one, or the block
+     * at fromHeight if there is none, by a binary search of the cache, as the timestamps increase with the height.
+     * Returns null if a block of the range is not in the cache, or if the block at toHeight is not the last block.
+     */
+    static BlockImpl findCachedBlockBefore(int fromHeight, int toHeight, int timestamp) {
+        if (toHeight - fromHeight >= blockCache.length) {
+            return null;
+        }
+        synchronized (blockCache) {
+            BlockImpl lastBlock = getCachedBlockAtHeight(toHeight);
+            if (lastBlock == null || lastBlock.getId() != BlockchainImpl.getInstance().getLastBlock().getId()) {
+                return null;
+            }
+            BlockImpl block = getCachedBlockAtHeight(fromHeight);
+            if (block == null) {
+                return null;
+            }
+            int low = fromHeight + 1;
+            int high = toHeight;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                BlockImpl middleBlock = getCachedBlockAtHeight(middle);
+                if (middleBlock == null) {
+                    return null;
+                }
+                if (middleBlock.getTimestamp() <= timestamp) {
+                    block = middleBlock;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return block;
+        }
+    }
+
+    static void cacheBlock(BlockImpl block) {
+        block.getTransactions();
+        synchronized (blockCache) {
+            int height = block.getHeight();
+            uncacheBlocksFrom(height);
+            BlockImpl previousBlock = blockCache[(height + blockCache.length - 1) % blockCache.length];
+            if (previousBlock != null && previousBlock.getId() == block.getPreviousBlockId()) {
+                previousBlock.setNextBlockId(block.getId());
+            }
+            BlockImpl evictedBlock = blockCache[height % blockCache.length];
+            if (evictedBlock != null) {
+                blockCacheById.remove(evictedBlock.getId());
+            }
+            blockCache[height % blockCache.length] = block;
+            blockCacheById.put(block.getId(), block);
+        }
+    }
+
+    static void uncacheBlocksFrom(int height) {
+        synchronized (blockCache) {
+            for (int i = 0; i < blockCache.length; i++) {
+                BlockImpl block = blockCache[i];
+                if (block == null) {
+                    continue;
+                }
+                if (block.getHeight() >= height) {
+                    blockCache[i] = null;
+                    blockCacheById.remove(block.getId());
+                } else if (block.getHeight() == height - 1) {
+                    // the next_block_id of the previous block is set to null when its next block is deleted
+                    block.setNextBlockId(0);
+                }
+            }
+        }
+    }
+
+    static void clearBlockCache() {
+        synchronized (blockCache) {
+            for (int i = 0; i < blockCache.length; i++) {
+                blockCache[i] = null;
+            }
+            blockCacheById.clear();
+        }
+    }
+
+    /**
+     * Fills the cache with the blocks above the given height, on start and after the blockchain has been replaced
+     */
+    static void loadBlockCache(int height) {
+        clearBlockCache();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height > ? ORDER BY height ASC")) {
+            pstmt.setInt(1, Math.max(height, -1));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    cacheBlock(loadBlock(con, rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } catch (NxtException.ValidationException e) {
+            throw new RuntimeException("Block already in database does not pass validation!", e);
+        }
+    }
+
     static BlockImpl findBlock(long blockId) {
+        BlockImpl cachedBlock = getCachedBlock(blockId);
+        if (cachedBlock != null) {
+            return cachedBlock;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE id = ?")) {
             pstmt.setLong(1, blockId);
@@ -31,6 +161,9 @@ final class BlockDb {
     }
 
     static boolean hasBlock(long blockId) {
+        if (getCachedBlock(blockId) != null) {
+            return true;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM block WHERE id = ?")) {
             pstmt.setLong(1, blockId);
@@ -43,6 +176,10 @@ final class BlockDb {
     }
 
     static long findBlockIdAtHeight(int height) {
+        BlockImpl cachedBlock = getCachedBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock.getId();
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT id FROM block WHERE height = ?")) {
             pstmt.setInt(1, height);
@@ -58,6 +195,10 @@ final class BlockDb {
     }
 
     static BlockImpl findBlockAtHeight(int height) {
+        BlockImpl cachedBlock = getCachedBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height = ?")) {
             pstmt.setInt(1, height);
@@ -95,6 +236,15 @@ final class BlockDb {
     }
 
     static BlockImpl findLastBlock(int timestamp) {
+        for (int height = BlockchainImpl.getInstance().getHeight(); height >= 0; height--) {
+            BlockImpl cachedBlock = getCachedBlockAtHeight(height);
+            if (cachedBlock == null) {
+                break;
+            }
+            if (cachedBlock.getTimestamp() <= timestamp) {
+                return cachedBlock;
+            }
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE timestamp <= ? ORDER BY timestamp DESC LIMIT 1")) {
             pstmt.setInt(1, timestamp);
@@ -191,19 +341,25 @@ final class BlockDb {
             return;
         }
         try (Connection con = Db.db.getConnection();
-             PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id FROM block WHERE timestamp >= "
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id, height FROM block WHERE timestamp >= "
                      + "(SELECT timestamp FROM block WHERE id = ?) ORDER BY timestamp DESC");
              PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM block WHERE db_id = ?")) {
             try {
                 pstmtSelect.setLong(1, blockId);
+                // only the cached blocks from the lowest deleted height are dropped, the block may not be cached
+                int fromHeight = Integer.MAX_VALUE;
                 try (ResultSet rs = pstmtSelect.executeQuery()) {
                     Db.db.commitTransaction();
                     while (rs.next()) {
         	            pstmtDelete.setLong(1, rs.getLong("db_id"));
             	        pstmtDelete.executeUpdate();
                         Db.db.commitTransaction();
+                        fromHeight = Math.min(fromHeight, rs.getInt("height"));
                     }
 	            }
+                if (fromHeight != Integer.MAX_VALUE) {
+                    uncacheBlocksFrom(fromHeight);
+                }
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
                 throw e;
@@ -237,6 +393,8 @@ final class BlockDb {
                 stmt.executeUpdate("TRUNCATE TABLE public_key");
                 stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
                 Db.db.commitTransaction();
+                clearBlockCache();
+                TransactionDb.clearTransactionIds();
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
                 throw e;
@@ -2,10 +2,12 @@ package nxt;
 
 import nxt.crypto.Crypto;
 import nxt.util.Convert;
+import nxt.util.JSON;
 import nxt.util.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import java.lang.ref.SoftReference;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -28,6 +30,7 @@ final class BlockImpl implements Block {
     private final byte[] generationSignature;
     private final byte[] payloadHash;
     private volatile List<TransactionImpl> blockTransactions;
+    private volatile TransactionDb.BlockTransactions transactionsLoader;
 
     private byte[] blockSignature;
     private BigInteger cumulativeDifficulty = BigInteger.ZERO;
@@ -37,6 +40,11 @@ final class BlockImpl implements Block {
     private volatile long id;
     private volatile String stringId = null;
     private volatile long generatorId;
+    private volatile boolean hasVerifiedBlockSignature;
+    // computed once the block is signed, the JSON text is dropped first if memory runs low
+    private volatile byte[] bytes;
+    private volatile byte[] hash;
+    private volatile SoftReference<String> jsonString;
 
 
     BlockImpl(int version, int timestamp, long previousBlockId, long totalAmountNQT, long totalFeeNQT, int payloadLength, byte[] payloadHash,
@@ -141,7 +149,10 @@ final class BlockImpl implements Block {
     @Override
     public List<TransactionImpl> getTransactions() {
         if (blockTransactions == null) {
-            this.blockTransactions = Collections.unmodifiableList(TransactionDb.findBlockTransactions(getId()));
+            TransactionDb.BlockTransactions loader = transactionsLoader;
+            List<TransactionImpl> transactions = loader != null ? loader.get(getId()) : TransactionDb.findBlockTransactions(getId());
+            this.blockTransactions = Collections.unmodifiableList(transactions);
+            this.transactionsLoader = null;
             for (TransactionImpl transaction : this.blockTransactions) {
                 transaction.setBlock(this);
             }
@@ -149,6 +160,10 @@ final class BlockImpl implements Block {
         return blockTransactions;
     }
 
+    void setTransactionsLoader(TransactionDb.BlockTransactions transactionsLoader) {
+        this.transactionsLoader = transactionsLoader;
+    }
+
     @Override
     public long getBaseTarget() {
         return baseTarget;
@@ -164,6 +179,10 @@ final class BlockImpl implements Block {
         return nextBlockId;
     }
 
+    void setNextBlockId(long nextBlockId) {
+        this.nextBlockId = nextBlockId;
+    }
+
     @Override
     public int getHeight() {
         if (height == -1) {
@@ -178,7 +197,7 @@ final class BlockImpl implements Block {
             if (blockSignature == null) {
                 throw new IllegalStateException("Block is not signed yet");
             }
-            byte[] hash = Crypto.sha256().digest(getBytes());
+            byte[] hash = getHash();
             BigInteger bigInteger = new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
             id = bigInteger.longValue();
             stringId = bigInteger.toString();
@@ -217,6 +236,35 @@ final class BlockImpl implements Block {
 
     @Override
     public JSONObject getJSONObject() {
+        JSONObject json = getHeaderJSONObject();
+        JSONArray transactionsData = new JSONArray();
+        for (Transaction transaction : getTransactions()) {
+            transactionsData.add(transaction.getJSONObject());
+        }
+        json.put("transactions", transactionsData);
+        return json;
+    }
+
+    @Override
+    public String getJSONString() {
+        SoftReference<String> jsonStringReference = this.jsonString;
+        String jsonString = jsonStringReference != null ? jsonStringReference.get() : null;
+        if (jsonString == null) {
+            JSONObject json = getHeaderJSONObject();
+            JSONArray transactionsData = new JSONArray();
+            for (Transaction transaction : getTransactions()) {
+                transactionsData.add(JSON.prepare(transaction.getJSONString()));
+            }
+            json.put("transactions", transactionsData);
+            jsonString = json.toJSONString();
+            if (blockSignature != null) {
+                this.jsonString = new SoftReference<>(jsonString);
+            }
+        }
+        return jsonString;
+    }
+
+    private JSONObject getHeaderJSONObject() {
         JSONObject json = new JSONObject();
         json.put("version", version);
         json.put("timestamp", timestamp);
@@ -231,11 +279,6 @@ final class BlockImpl implements Block {
             json.put("previousBlockHash", Convert.toHexString(previousBlockHash));
         }
         json.put("blockSignature", Convert.toHexString(blockSignature));
-        JSONArray transactionsData = new JSONArray();
-        for (Transaction transaction : getTransactions()) {
-            transactionsData.add(transaction.getJSONObject());
-        }
-        json.put("transactions", transactionsData);
         return json;
     }
 
@@ -264,7 +307,81 @@ final class BlockImpl implements Block {
         }
     }
 
+    /**
+     * Parses the block bytes as returned by getBytes, the transactions of the block are kept separately
+     */
+    static BlockImpl parseBlock(byte[] bytes, List<TransactionImpl> blockTransactions) throws NxtException.ValidationException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int version = buffer.getInt();
+            int timestamp = buffer.getInt();
+            long previousBlock = buffer.getLong();
+            int numberOfTransactions = buffer.getInt();
+            if (numberOfTransactions != blockTransactions.size()) {
+                throw new NxtException.NotValidException("Block has " + numberOfTransactions + " transactions, "
+                        + blockTransactions.size() + " given");
+            }
+            long totalAmountNQT;
+            long totalFeeNQT;
+            if (version < 3) {
+                totalAmountNQT = buffer.getInt() * Constants.ONE_NXT;
+                totalFeeNQT = buffer.getInt() * Constants.ONE_NXT;
+            } else {
+                totalAmountNQT = buffer.getLong();
+                totalFeeNQT = buffer.getLong();
+            }
+            int payloadLength = buffer.getInt();
+            byte[] payloadHash = new byte[32];
+            buffer.get(payloadHash);
+            byte[] generatorPublicKey = new byte[32];
+            buffer.get(generatorPublicKey);
+            byte[] generationSignature = new byte[version == 1 ? 64 : 32];
+            buffer.get(generationSignature);
+            byte[] previousBlockHash = null;
+            if (version > 1) {
+                previousBlockHash = new byte[32];
+                buffer.get(previousBlockHash);
+            }
+            byte[] blockSignature = new byte[64];
+            buffer.get(blockSignature);
+            return new BlockImpl(version, timestamp, previousBlock, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash, generatorPublicKey,
+                    generationSignature, blockSignature, previousBlockHash, blockTransactions);
+        } catch (NxtException.ValidationException|RuntimeException e) {
+            Logger.logDebugMessage("Failed to parse block bytes: " + Convert.toHexString(bytes));
+            throw e;
+        }
+    }
+
+    /**
+     * The returned array is shared and must not be modified
+     */
     byte[] getBytes() {
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            bytes = buildBytes();
+            if (blockSignature != null) {
+                this.bytes = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the block bytes, as referenced by the previous block hash of the next block
+     */
+    byte[] getHash() {
+        byte[] hash = this.hash;
+        if (hash == null) {
+            hash = Crypto.sha256().digest(getBytes());
+            if (blockSignature != null) {
+                this.hash = hash;
+            }
+        }
+        return hash;
+    }
+
+    private byte[] buildBytes() {
         ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 + 4 + (version < 3 ? (4 + 4) : (8 + 8)) + 4 + 32 + 32 + (32 + 32) + 64);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         buffer.putInt(version);
@@ -294,7 +411,7 @@ final class BlockImpl implements Block {
             throw new IllegalStateException("Block already signed");
         }
         blockSignature = new byte[64];
-        byte[] data = getBytes();
+        byte[] data = buildBytes();
         byte[] data2 = new byte[data.length - 64];
         System.arraycopy(data, 0, data2, 0, data2.length);
         blockSignature = Crypto.sign(data2, secretPhrase);
@@ -307,12 +424,36 @@ final class BlockImpl implements Block {
             return false;
         }
 
+        return (hasVerifiedBlockSignature || checkBlockSignature()) && account.setOrVerify(getGeneratorPublicKey());
+
+    }
+
+    /**
+     * Checks the block signature without looking up the generator account, so that it can be done by any thread
+     * ahead of block processing. A valid signature is remembered and not checked again by verifyBlockSignature.
+     */
+    void preVerifyBlockSignature() {
+        if (!hasVerifiedBlockSignature && checkBlockSignature()) {
+            hasVerifiedBlockSignature = true;
+        }
+    }
+
+    /**
+     * Accepts the signatures of the block and of its transactions without checking them, for a block below a trusted
+     * checkpoint. The public keys are still set or compared by verifyBlockSignature and verifySignature.
+     */
+    void trustSignatures() {
+        hasVerifiedBlockSignature = true;
+        for (TransactionImpl transaction : getTransactions()) {
+            transaction.trustSignature();
+        }
+    }
+
+    private boolean checkBlockSignature() {
         byte[] data = getBytes();
         byte[] data2 = new byte[data.length - 64];
         System.arraycopy(data, 0, data2, 0, data2.length);
-
-        return Crypto.verify(blockSignature, data2, getGeneratorPublicKey(), version >= 3) && account.setOrVerify(getGeneratorPublicKey());
-
+        return Crypto.verify(blockSignature, data2, getGeneratorPublicKey(), version >= 3);
     }
 
     boolean verifyGenerationSignature() throws BlockchainProcessor.BlockOutOfOrderException {
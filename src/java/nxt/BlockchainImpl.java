@@ -29,10 +29,12 @@ final class BlockchainImpl implements Blockchain {
     }
 
     void setLastBlock(BlockImpl block) {
+        Db.db.flushPendingWrites();
         lastBlock.set(block);
     }
 
     void setLastBlock(BlockImpl previousBlock, BlockImpl block) {
+        Db.db.flushPendingWrites();
         if (! lastBlock.compareAndSet(previousBlock, block)) {
             throw new IllegalStateException("Last block is no longer previous block");
         }
@@ -73,7 +75,12 @@ final class BlockchainImpl implements Blockchain {
         try {
             con = Db.db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block ORDER BY db_id ASC");
-            return getBlocks(con, pstmt);
+            return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<BlockImpl>() {
+                @Override
+                public BlockImpl get(Connection con, ResultSet rs) throws NxtException.ValidationException {
+                    return BlockDb.loadBlock(con, rs);
+                }
+            }, !Db.db.isInTransaction());
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
@@ -89,7 +96,15 @@ final class BlockchainImpl implements Blockchain {
             int blockchainHeight = getHeight();
             pstmt.setInt(1, blockchainHeight - from);
             pstmt.setInt(2, blockchainHeight - to);
-            return getBlocks(con, pstmt);
+            final TransactionDb.BlockTransactions blockTransactions = new TransactionDb.BlockTransactions(blockchainHeight - to, blockchainHeight - from);
+            return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<BlockImpl>() {
+                @Override
+                public BlockImpl get(Connection con, ResultSet rs) throws NxtException.ValidationException {
+                    BlockImpl block = BlockDb.loadBlock(con, rs);
+                    block.setTransactionsLoader(blockTransactions);
+                    return block;
+                }
+            });
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
@@ -177,9 +192,23 @@ final class BlockchainImpl implements Blockchain {
             List<BlockImpl> result = new ArrayList<>();
             pstmt.setLong(1, blockId);
             pstmt.setInt(2, limit);
+            // recent blocks are served from the block cache, the transactions of the others are loaded together
+            List<BlockImpl> loadedBlocks = new ArrayList<>();
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(BlockDb.loadBlock(con, rs));
+                    BlockImpl block = BlockDb.getCachedBlock(rs.getLong("id"));
+                    if (block == null) {
+                        block = BlockDb.loadBlock(con, rs);
+                        loadedBlocks.add(block);
+                    }
+                    result.add(block);
+                }
+            }
+            if (! loadedBlocks.isEmpty()) {
+                TransactionDb.BlockTransactions blockTransactions = new TransactionDb.BlockTransactions(loadedBlocks.get(0).getHeight(),
+                        loadedBlocks.get(loadedBlocks.size() - 1).getHeight());
+                for (BlockImpl block : loadedBlocks) {
+                    block.setTransactionsLoader(blockTransactions);
                 }
             }
             return result;
@@ -249,7 +278,12 @@ final class BlockchainImpl implements Blockchain {
         try {
             con = Db.db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM transaction ORDER BY db_id ASC");
-            return getTransactions(con, pstmt);
+            return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<TransactionImpl>() {
+                @Override
+                public TransactionImpl get(Connection con, ResultSet rs) throws NxtException.ValidationException {
+                    return TransactionDb.loadTransaction(con, rs);
+                }
+            }, !Db.db.isInTransaction());
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
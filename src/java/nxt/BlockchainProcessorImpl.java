@@ -3,11 +3,9 @@ package nxt;
 import nxt.crypto.Crypto;
 import nxt.db.DbIterator;
 import nxt.db.DerivedDbTable;
-import nxt.db.FilteringIterator;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
-import nxt.util.Filter;
 import nxt.util.JSON;
 import nxt.util.Listener;
 import nxt.util.Listeners;
@@ -26,15 +24,27 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 final class BlockchainProcessorImpl implements BlockchainProcessor {
 
@@ -48,6 +58,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     private static final BlockchainProcessorImpl instance = new BlockchainProcessorImpl();
 
+    private static final int SCAN_VALIDATION_AHEAD = 256;
+
     static BlockchainProcessorImpl getInstance() {
         return instance;
     }
@@ -56,7 +68,49 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     private final List<DerivedDbTable> derivedTables = new CopyOnWriteArrayList<>();
     private final boolean trimDerivedTables = Nxt.getBooleanProperty("nxt.trimDerivedTables");
+    private final int maxTrimKeysPerBlock = Nxt.getIntProperty("nxt.maxTrimKeysPerBlock");
     private final int defaultNumberOfForkConfirmations = Nxt.getIntProperty(Constants.isTestnet ? "nxt.testnetNumberOfForkConfirmations" : "nxt.numberOfForkConfirmations");
+    private final int signatureVerificationThreads = Nxt.getIntProperty("nxt.signatureVerificationThreads");
+    private final ForkJoinPool signatureVerifier = signatureVerificationThreads > 0 ? new ForkJoinPool(signatureVerificationThreads) : null;
+    private final boolean prefetchNextBlocks = Nxt.getBooleanProperty("nxt.prefetchNextBlocks");
+    private final int parallelBlockDownloadPeers = Nxt.getIntProperty("nxt.parallelBlockDownloadPeers");
+    private final int scanCommitBlocks = Nxt.getIntProperty("nxt.scanCommitBlocks");
+    private final int scanCommitInterval = Nxt.getIntProperty("nxt.scanCommitInterval");
+    private final SortedMap<Integer,Long> checkpoints = parseCheckpoints(Nxt.getStringListProperty(
+            Constants.isTestnet ? "nxt.testnetCheckpoints" : "nxt.checkpoints"));
+    private final int highestCheckpointHeight = checkpoints.isEmpty() ? 0 : checkpoints.lastKey();
+    // the checkpoint confirmed by checkpointPeer, only the blocks downloaded from that peer are trusted below it
+    private volatile Peer checkpointPeer;
+    private volatile int trustedCheckpointHeight;
+    private final ExecutorService blockDownloadService = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BlockDownload");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Blocks received for one getNextBlocks request, parsed up to the first failure. A batch requested ahead of time
+     * holds the future result instead.
+     */
+    private static final class NextBlocks {
+
+        private final Peer peer;
+        private final long blockId;
+        private final List<BlockImpl> blocks;
+        private final Exception parseFailure;
+        private Future<NextBlocks> future;
+
+        private NextBlocks(Peer peer, long blockId, List<BlockImpl> blocks, Exception parseFailure) {
+            this.peer = peer;
+            this.blockId = blockId;
+            this.blocks = blocks;
+            this.parseFailure = parseFailure;
+        }
+
+    }
 
     private volatile int lastTrimHeight;
 
@@ -79,6 +133,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
 
         private boolean peerHasMore;
+        private NextBlocks prefetchedBlocks;
 
         @Override
         public void run() {
@@ -95,7 +150,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         return;
                     }
                     peerHasMore = true;
-                    final Peer peer = Peers.getWeightedPeer(connectedPublicPeers);
+                    // keep downloading from the peer whose next blocks are already being fetched
+                    NextBlocks prefetched = prefetchedBlocks;
+                    boolean continueDownload = prefetched != null && prefetched.blockId == blockchain.getLastBlock().getId()
+                            && prefetched.peer.getState() == Peer.State.CONNECTED;
+                    if (prefetched != null && !continueDownload) {
+                        cancelPrefetch();
+                    }
+                    final Peer peer = continueDownload ? prefetched.peer : Peers.getWeightedPeer(connectedPublicPeers);
                     if (peer == null) {
                         return;
                     }
@@ -119,19 +181,26 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     if (betterCumulativeDifficulty.equals(curCumulativeDifficulty)) {
                         return;
                     }
+                    confirmCheckpoints(peer);
 
-                    long commonMilestoneBlockId = Genesis.GENESIS_BLOCK_ID;
+                    final long commonBlockId;
+                    if (continueDownload) {
+                        // the prefetched blocks follow our last block, no need to look for the common block
+                        commonBlockId = prefetched.blockId;
+                    } else {
+                        long commonMilestoneBlockId = Genesis.GENESIS_BLOCK_ID;
 
-                    if (blockchain.getLastBlock().getId() != Genesis.GENESIS_BLOCK_ID) {
-                        commonMilestoneBlockId = getCommonMilestoneBlockId(peer);
-                    }
-                    if (commonMilestoneBlockId == 0 || !peerHasMore) {
-                        return;
-                    }
+                        if (blockchain.getLastBlock().getId() != Genesis.GENESIS_BLOCK_ID) {
+                            commonMilestoneBlockId = getCommonMilestoneBlockId(peer);
+                        }
+                        if (commonMilestoneBlockId == 0 || !peerHasMore) {
+                            return;
+                        }
 
-                    final long commonBlockId = getCommonBlockId(peer, commonMilestoneBlockId);
-                    if (commonBlockId == 0 || !peerHasMore) {
-                        return;
+                        commonBlockId = getCommonBlockId(peer, commonMilestoneBlockId);
+                        if (commonBlockId == 0 || !peerHasMore) {
+                            return;
+                        }
                     }
 
                     final Block commonBlock = blockchain.getBlock(commonBlockId);
@@ -141,7 +210,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
                     synchronized (blockchain) {
                         long lastBlockId = blockchain.getLastBlock().getId();
-                        downloadBlockchain(peer, commonBlock);
+                        downloadBlockchain(peer, commonBlock, true);
 
                         if (blockchain.getHeight() - commonBlock.getHeight() <= 10) {
                             return;
@@ -175,7 +244,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                                 continue;
                             }
                             Logger.logDebugMessage("Found a peer with better difficulty");
-                            downloadBlockchain(otherPeer, commonBlock); // not otherPeerCommonBlock
+                            downloadBlockchain(otherPeer, commonBlock, false); // not otherPeerCommonBlock
                         }
                         Logger.logDebugMessage("Got " + confirmations + " confirmations");
 
@@ -249,21 +318,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         private long getCommonBlockId(Peer peer, long commonBlockId) {
 
             while (true) {
-                JSONObject request = new JSONObject();
-                request.put("requestType", "getNextBlockIds");
-                request.put("blockId", Convert.toUnsignedLong(commonBlockId));
-                JSONObject response = peer.send(JSON.prepareRequest(request));
-                if (response == null) {
-                    return 0;
-                }
-                JSONArray nextBlockIds = (JSONArray) response.get("nextBlockIds");
-                if (nextBlockIds == null || nextBlockIds.size() == 0) {
-                    return 0;
-                }
-                // prevent overloading with blockIds
-                if (nextBlockIds.size() > 1440) {
-                    Logger.logDebugMessage("Obsolete or rogue peer " + peer.getPeerAddress() + " sends too many nextBlockIds, blacklisting");
-                    peer.blacklist();
+                JSONArray nextBlockIds = getNextBlockIds(peer, commonBlockId);
+                if (nextBlockIds == null) {
                     return 0;
                 }
 
@@ -278,32 +334,108 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         }
 
-        private void downloadBlockchain(final Peer peer, final Block commonBlock) {
-            JSONArray nextBlocks = getNextBlocks(peer, commonBlock.getId());
-            if (nextBlocks == null || nextBlocks.size() == 0) {
+        /**
+         * Trusts, for the blocks downloaded from the peer, the highest checkpoint which the peer and another connected
+         * peer have further blocks after. A checkpoint which the network has not reached yet, or which is not on the
+         * chain of the peer, does not turn off the signature checks.
+         */
+        private void confirmCheckpoints(Peer peer) {
+            if (blockchain.getHeight() >= highestCheckpointHeight
+                    || (peer == checkpointPeer && trustedCheckpointHeight >= highestCheckpointHeight)) {
                 return;
             }
+            checkpointPeer = null;
+            trustedCheckpointHeight = 0;
+            List<Integer> heights = new ArrayList<>(checkpoints.keySet());
+            for (int i = heights.size() - 1; i >= 0; i--) {
+                int height = heights.get(i);
+                if (getNextBlockIds(peer, checkpoints.get(height)) != null && isCheckpointConfirmedByOtherPeer(peer, height)) {
+                    Logger.logDebugMessage("Checkpoint at height " + height + " confirmed by peer " + peer.getPeerAddress());
+                    trustedCheckpointHeight = height;
+                    checkpointPeer = peer;
+                    return;
+                }
+            }
+        }
 
-            List<BlockImpl> forkBlocks = new ArrayList<>();
-
-            for (Object o : nextBlocks) {
-                JSONObject blockData = (JSONObject) o;
-                BlockImpl block;
-                try {
-                    block = BlockImpl.parseBlock(blockData);
-                } catch (NxtException.NotCurrentlyValidException e) {
-                    Logger.logDebugMessage("Cannot validate block: " + e.toString()
-                            + ", will try again later", e);
+        private boolean isCheckpointConfirmedByOtherPeer(Peer peer, int height) {
+            List<Peer> otherPeers = new ArrayList<>(Peers.getPublicPeers(Peer.State.CONNECTED, true));
+            Collections.shuffle(otherPeers);
+            int tries = 0;
+            for (Peer otherPeer : otherPeers) {
+                if (otherPeer == peer) {
+                    continue;
+                }
+                if (getNextBlockIds(otherPeer, checkpoints.get(height)) != null) {
+                    return true;
+                }
+                if (++tries >= 3) {
                     break;
-                } catch (RuntimeException | NxtException.ValidationException e) {
-                    Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
-                    peer.blacklist(e);
-                    return;
                 }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the height below which the signatures of the blocks downloaded from the peer are not checked
+         */
+        private int getTrustedHeight(Peer peer) {
+            return peer == checkpointPeer ? trustedCheckpointHeight : 0;
+        }
+
+        private JSONArray getNextBlockIds(Peer peer, long blockId) {
+
+            JSONObject request = new JSONObject();
+            request.put("requestType", "getNextBlockIds");
+            request.put("blockId", Convert.toUnsignedLong(blockId));
+            JSONObject response = peer.send(JSON.prepareRequest(request));
+            if (response == null) {
+                return null;
+            }
+            JSONArray nextBlockIds = (JSONArray) response.get("nextBlockIds");
+            if (nextBlockIds == null || nextBlockIds.size() == 0) {
+                return null;
+            }
+            // prevent overloading with blockIds
+            if (nextBlockIds.size() > 1440) {
+                Logger.logDebugMessage("Obsolete or rogue peer " + peer.getPeerAddress() + " sends too many nextBlockIds, blacklisting");
+                peer.blacklist();
+                return null;
+            }
+            return nextBlockIds;
+
+        }
+
+        /**
+         * Pushes the blocks following commonBlock received from the peer. Only the peer the blockchain is downloaded from
+         * may be trusted below its confirmed checkpoint, not a peer the download is confirmed with.
+         */
+        private void downloadBlockchain(final Peer peer, final Block commonBlock, boolean trustCheckpoint) {
+            NextBlocks nextBlocks = takePrefetchedBlocks(peer, commonBlock.getId());
+            if (nextBlocks == null) {
+                nextBlocks = commonBlock.getId() == blockchain.getLastBlock().getId() && parallelBlockDownloadPeers > 1 ?
+                        getNextBlocksFromPeers(peer, commonBlock.getId()) : getNextBlocks(peer, commonBlock.getId());
+            }
+            if (nextBlocks == null) {
+                return;
+            }
+
+            List<BlockImpl> blocks = nextBlocks.blocks;
+            Exception parseFailure = nextBlocks.parseFailure;
+            // the next batch starts after the last block pushed below, and is fetched while this one is being pushed
+            if (prefetchNextBlocks && parseFailure == null && blocks.size() == 720
+                    && blocks.get(0).getPreviousBlockId() == blockchain.getLastBlock().getId()) {
+                prefetch(peer, blocks.get(720 - 2).getId());
+            }
+
+            List<BlockImpl> forkBlocks = new ArrayList<>();
+            int trustedHeight = trustCheckpoint ? getTrustedHeight(peer) : 0;
+
+            for (BlockImpl block : blocks) {
 
                 if (blockchain.getLastBlock().getId() == block.getPreviousBlockId()) {
                     try {
-                        pushBlock(block);
+                        pushBlock(block, trustedHeight);
                         if (blockchain.getHeight() - commonBlock.getHeight() == 720 - 1) {
                             break;
                         }
@@ -320,6 +452,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
             }
 
+            if (parseFailure != null) {
+                peer.blacklist(parseFailure);
+                return;
+            }
+
             if (forkBlocks.size() > 0 && blockchain.getHeight() - commonBlock.getHeight() < 720) {
                 Logger.logDebugMessage("Will process a fork of " + forkBlocks.size() + " blocks");
                 processFork(peer, forkBlocks, commonBlock);
@@ -327,7 +464,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         }
 
-        private JSONArray getNextBlocks(Peer peer, long curBlockId) {
+        /**
+         * Requests the blocks following curBlockId and parses them, stopping at the first block which fails to parse.
+         * Returns null if the peer sent no blocks.
+         */
+        private NextBlocks getNextBlocks(Peer peer, long curBlockId) {
 
             JSONObject request = new JSONObject();
             request.put("requestType", "getNextBlocks");
@@ -338,7 +479,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             }
 
             JSONArray nextBlocks = (JSONArray) response.get("nextBlocks");
-            if (nextBlocks == null) {
+            if (nextBlocks == null || nextBlocks.size() == 0) {
                 return null;
             }
             // prevent overloading with blocks
@@ -348,8 +489,208 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 return null;
             }
 
-            return nextBlocks;
+            List<BlockImpl> blocks = new ArrayList<>(nextBlocks.size());
+            Exception parseFailure = null;
+            for (Object o : nextBlocks) {
+                JSONObject blockData = (JSONObject) o;
+                try {
+                    blocks.add(BlockImpl.parseBlock(blockData));
+                } catch (NxtException.NotCurrentlyValidException e) {
+                    Logger.logDebugMessage("Cannot validate block: " + e.toString()
+                            + ", will try again later", e);
+                    break;
+                } catch (RuntimeException | NxtException.ValidationException e) {
+                    Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                    parseFailure = e;
+                    break;
+                }
+            }
+
+            preVerifySignatures(blocks, getTrustedHeight(peer));
+
+            return new NextBlocks(peer, curBlockId, blocks, parseFailure);
+
+        }
+
+        /**
+         * Requests the blocks following curBlockId in consecutive ranges from several peers at the same time. The ids
+         * of the blocks are agreed on with the given peer first. A range which a peer does not provide, or provides
+         * with other blocks than those of the agreed ids, is requested again from the next peer. Blocks are returned up
+         * to the first range which no peer could provide.
+         */
+        private NextBlocks getNextBlocksFromPeers(Peer peer, long curBlockId) {
+            JSONArray nextBlockIds = getNextBlockIds(peer, curBlockId);
+            if (nextBlockIds == null) {
+                return null;
+            }
+            final long[] blockIds = new long[Math.min(nextBlockIds.size(), 720)];
+            for (int i = 0; i < blockIds.length; i++) {
+                blockIds[i] = Convert.parseUnsignedLong((String) nextBlockIds.get(i));
+            }
+            final List<Peer> peers = new ArrayList<>();
+            peers.add(peer);
+            List<Peer> otherPeers = new ArrayList<>(Peers.getPublicPeers(Peer.State.CONNECTED, true));
+            Collections.shuffle(otherPeers);
+            for (Peer otherPeer : otherPeers) {
+                if (peers.size() >= parallelBlockDownloadPeers) {
+                    break;
+                }
+                if (otherPeer != peer) {
+                    peers.add(otherPeer);
+                }
+            }
+            int rangeSize = (blockIds.length + peers.size() - 1) / peers.size();
+            List<Future<List<BlockImpl>>> ranges = new ArrayList<>();
+            for (int from = 0; from < blockIds.length; from += rangeSize) {
+                final Peer rangePeer = peers.get(ranges.size());
+                final long previousBlockId = from == 0 ? curBlockId : blockIds[from - 1];
+                final int rangeFrom = from;
+                final int rangeTo = Math.min(from + rangeSize, blockIds.length);
+                ranges.add(blockDownloadService.submit(new Callable<List<BlockImpl>>() {
+                    @Override
+                    public List<BlockImpl> call() {
+                        return getBlockRange(rangePeer, previousBlockId, blockIds, rangeFrom, rangeTo);
+                    }
+                }));
+            }
+            List<BlockImpl> blocks = new ArrayList<>(blockIds.length);
+            try {
+                for (int i = 0; i < ranges.size(); i++) {
+                    int from = i * rangeSize;
+                    int to = Math.min(from + rangeSize, blockIds.length);
+                    List<BlockImpl> rangeBlocks;
+                    try {
+                        rangeBlocks = ranges.get(i).get();
+                    } catch (ExecutionException e) {
+                        Logger.logDebugMessage("Failed to download blocks from " + peers.get(i).getPeerAddress(), e.getCause());
+                        rangeBlocks = null;
+                    }
+                    // the other peers are tried in turn, not again the peer which failed
+                    for (int j = 1; rangeBlocks == null && j < peers.size(); j++) {
+                        Peer otherPeer = peers.get((i + j) % peers.size());
+                        if (otherPeer.getState() == Peer.State.CONNECTED) {
+                            rangeBlocks = getBlockRange(otherPeer, from == 0 ? curBlockId : blockIds[from - 1], blockIds, from, to);
+                        }
+                    }
+                    if (rangeBlocks == null) {
+                        break;
+                    }
+                    blocks.addAll(rangeBlocks);
+                    if (rangeBlocks.size() < to - from) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                blocks.clear();
+            } finally {
+                for (Future<List<BlockImpl>> range : ranges) {
+                    range.cancel(true);
+                }
+            }
+            if (blocks.isEmpty()) {
+                return null;
+            }
+            preVerifySignatures(blocks, getTrustedHeight(peer));
+            return new NextBlocks(peer, curBlockId, blocks, null);
+        }
+
+        /**
+         * Returns the blocks with ids blockIds[from] to blockIds[to - 1], fewer if one of them cannot be validated yet,
+         * or null if the peer did not send them all. The ids come from another peer, which may be on a fork, a peer
+         * sending other blocks is only blacklisted if they do not follow each other.
+         */
+        private List<BlockImpl> getBlockRange(Peer peer, long previousBlockId, long[] blockIds, int from, int to) {
+
+            JSONObject request = new JSONObject();
+            request.put("requestType", "getNextBlocks");
+            request.put("blockId", Convert.toUnsignedLong(previousBlockId));
+            request.put("limit", to - from);
+            JSONObject response = peer.send(JSON.prepareRequest(request), 192 * 1024 * 1024);
+            if (response == null) {
+                return null;
+            }
+            JSONArray nextBlocks = (JSONArray) response.get("nextBlocks");
+            // a peer which is behind may not have all the blocks of the range
+            if (nextBlocks == null || nextBlocks.size() < to - from) {
+                return null;
+            }
+            if (nextBlocks.size() > 720) {
+                Logger.logDebugMessage("Obsolete or rogue peer " + peer.getPeerAddress() + " sends too many nextBlocks, blacklisting");
+                peer.blacklist();
+                return null;
+            }
+
+            List<BlockImpl> blocks = new ArrayList<>(to - from);
+            BlockImpl previousBlock = null;
+            for (int i = from; i < to; i++) {
+                BlockImpl block;
+                try {
+                    block = BlockImpl.parseBlock((JSONObject) nextBlocks.get(i - from));
+                } catch (NxtException.NotCurrentlyValidException e) {
+                    Logger.logDebugMessage("Cannot validate block: " + e.toString()
+                            + ", will try again later", e);
+                    break;
+                } catch (RuntimeException | NxtException.ValidationException e) {
+                    Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                    peer.blacklist(e);
+                    return null;
+                }
+                if (block.getPreviousBlockId() != (previousBlock == null ? previousBlockId : previousBlock.getId())
+                        || (previousBlock != null && block.getVersion() != 1
+                        && !Arrays.equals(previousBlock.getHash(), block.getPreviousBlockHash()))) {
+                    Logger.logDebugMessage("Peer " + peer.getPeerAddress() + " sent block " + block.getStringId()
+                            + " which does not follow the previous block, blacklisting");
+                    peer.blacklist();
+                    return null;
+                }
+                if (block.getId() != blockIds[i]) {
+                    Logger.logDebugMessage("Peer " + peer.getPeerAddress() + " sent block " + block.getStringId() + " instead of "
+                            + Convert.toUnsignedLong(blockIds[i]) + ", may be on another fork");
+                    return null;
+                }
+                blocks.add(block);
+                previousBlock = block;
+            }
+            return blocks;
+
+        }
 
+        private void prefetch(final Peer peer, final long curBlockId) {
+            cancelPrefetch();
+            NextBlocks prefetched = new NextBlocks(peer, curBlockId, null, null);
+            prefetched.future = blockDownloadService.submit(new Callable<NextBlocks>() {
+                @Override
+                public NextBlocks call() {
+                    return parallelBlockDownloadPeers > 1 ? getNextBlocksFromPeers(peer, curBlockId) : getNextBlocks(peer, curBlockId);
+                }
+            });
+            prefetchedBlocks = prefetched;
+        }
+
+        private NextBlocks takePrefetchedBlocks(Peer peer, long curBlockId) {
+            NextBlocks prefetched = prefetchedBlocks;
+            if (prefetched == null || prefetched.peer != peer || prefetched.blockId != curBlockId) {
+                return null;
+            }
+            prefetchedBlocks = null;
+            try {
+                return prefetched.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Logger.logDebugMessage("Failed to prefetch blocks from " + peer.getPeerAddress(), e.getCause());
+                return null;
+            }
+        }
+
+        private void cancelPrefetch() {
+            NextBlocks prefetched = prefetchedBlocks;
+            if (prefetched != null) {
+                prefetched.future.cancel(true);
+                prefetchedBlocks = null;
+            }
         }
 
         private void processFork(Peer peer, final List<BlockImpl> forkBlocks, final Block commonBlock) {
@@ -438,6 +779,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                             }
                         }
                     }
+                    // versioned tables only queue their modified keys when trimmed, spread the deletes over the following blocks
+                    int maxKeys = maxTrimKeysPerBlock;
+                    for (DerivedDbTable table : derivedTables) {
+                        if (maxKeys <= 0) {
+                            break;
+                        }
+                        maxKeys -= table.trimPending(maxKeys);
+                    }
                 }
             }, Event.AFTER_BLOCK_APPLY);
         }
@@ -454,6 +803,16 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 if (block.getHeight() == Constants.MONETARY_SYSTEM_BLOCK && ! verifyChecksum(CHECKSUM_MONETARY_SYSTEM_BLOCK)) {
                     popOffTo(Constants.NQT_BLOCK);
                 }
+                Long checkpointId = checkpoints.get(block.getHeight());
+                if (checkpointId != null && checkpointId != block.getId()) {
+                    Logger.logErrorMessage("Block " + block.getStringId() + " at height " + block.getHeight()
+                            + " does not match checkpoint " + Convert.toUnsignedLong(checkpointId));
+                    // the signatures of the blocks since the previous checkpoint have not been checked
+                    SortedMap<Integer,Long> previousCheckpoints = checkpoints.headMap(block.getHeight());
+                    checkpointPeer = null;
+                    trustedCheckpointHeight = 0;
+                    popOffTo(previousCheckpoints.isEmpty() ? 0 : previousCheckpoints.lastKey());
+                }
             }
         }, Event.BLOCK_PUSHED);
 
@@ -482,6 +841,13 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         rescan = rs.getBoolean("rescan");
                         validate = rs.getBoolean("validate");
                         height = rs.getInt("height");
+                        // the effects of the unconfirmed transactions were not undone when the node was stopped
+                        int unconfirmedHeight = rs.getInt("unconfirmed_height");
+                        if (!rs.wasNull() && (!rescan || unconfirmedHeight < height)) {
+                            Logger.logMessage("Unconfirmed transactions left from height " + unconfirmedHeight + ", will scan again from it");
+                            rescan = true;
+                            height = unconfirmedHeight;
+                        }
                     } catch (SQLException e) {
                         throw new RuntimeException(e.toString(), e);
                     }
@@ -498,6 +864,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public boolean addListener(Listener<Block> listener, BlockchainProcessor.Event eventType) {
+        if (Listeners.isAsync(listener) && (eventType == Event.BEFORE_BLOCK_ACCEPT || eventType == Event.BEFORE_BLOCK_APPLY
+                || eventType == Event.AFTER_BLOCK_APPLY || eventType == Event.RESCAN_BEGIN || eventType == Event.RESCAN_END)) {
+            throw new IllegalArgumentException("Listeners of " + eventType + " must be synchronous");
+        }
         return blockListeners.addListener(listener, eventType);
     }
 
@@ -514,6 +884,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         derivedTables.add(table);
     }
 
+    List<DerivedDbTable> getDerivedTables() {
+        return Collections.unmodifiableList(derivedTables);
+    }
+
     @Override
     public Peer getLastBlockchainFeeder() {
         return lastBlockchainFeeder;
@@ -537,6 +911,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     @Override
     public void processPeerBlock(JSONObject request) throws NxtException {
         BlockImpl block = BlockImpl.parseBlock(request);
+        preVerifySignatures(Collections.singletonList(block), 0);
         BlockImpl lastBlock = blockchain.getLastBlock();
         if (block.getPreviousBlockId() == lastBlock.getId()) {
             pushBlock(block);
@@ -597,6 +972,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private void addBlock(BlockImpl block) {
         try (Connection con = Db.db.getConnection()) {
             BlockDb.saveBlock(con, block);
+            BlockDb.cacheBlock(block);
             blockchain.setLastBlock(block);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -607,6 +983,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         if (BlockDb.hasBlock(Genesis.GENESIS_BLOCK_ID)) {
             Logger.logMessage("Genesis block already in database");
             BlockImpl lastBlock = BlockDb.findLastBlock();
+            BlockDb.loadBlockCache(lastBlock.getHeight() - Constants.MAX_ROLLBACK);
             blockchain.setLastBlock(lastBlock);
             Logger.logMessage("Last block height: " + lastBlock.getHeight());
             return;
@@ -647,7 +1024,56 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
     }
 
+    /**
+     * Checks the signatures of the blocks and of their transactions in parallel, without holding the blockchain lock.
+     * Only the valid signatures are remembered, anything else is checked again and reported by pushBlock.
+     */
+    private void preVerifySignatures(List<BlockImpl> blocks, int trustedHeight) {
+        if (signatureVerifier == null || blocks.isEmpty() || blockchain.getHeight() + blocks.size() < trustedHeight) {
+            return;
+        }
+        List<Callable<Void>> checks = new ArrayList<>();
+        for (final BlockImpl block : blocks) {
+            checks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    block.preVerifyBlockSignature();
+                    return null;
+                }
+            });
+            for (final TransactionImpl transaction : block.getTransactions()) {
+                checks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        transaction.preVerifySignature();
+                        return null;
+                    }
+                });
+            }
+        }
+        signatureVerifier.invokeAll(checks);
+    }
+
+    /**
+     * Pushes blocks which were not received from a peer, such as those of a chain file, with the same checks, checkpoints
+     * do not turn off any of them
+     */
+    void pushBlocks(List<BlockImpl> blocks) throws BlockNotAcceptedException {
+        preVerifySignatures(blocks, 0);
+        for (BlockImpl block : blocks) {
+            pushBlock(block);
+        }
+    }
+
     private void pushBlock(final BlockImpl block) throws BlockNotAcceptedException {
+        pushBlock(block, 0);
+    }
+
+    /**
+     * Pushes the block, without checking the block and transaction signatures if it is below trustedHeight, which is
+     * only given for the blocks downloaded from the peer which confirmed a checkpoint
+     */
+    private void pushBlock(final BlockImpl block, final int trustedHeight) throws BlockNotAcceptedException {
 
         int curTime = Nxt.getEpochTime();
 
@@ -666,7 +1092,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     throw new BlockNotAcceptedException("Invalid version " + block.getVersion());
                 }
 
-                if (block.getVersion() != 1 && !Arrays.equals(Crypto.sha256().digest(previousLastBlock.getBytes()), block.getPreviousBlockHash())) {
+                if (block.getVersion() != 1 && !Arrays.equals(previousLastBlock.getHash(), block.getPreviousBlockHash())) {
                     throw new BlockNotAcceptedException("Previous block hash doesn't match");
                 }
                 if (block.getTimestamp() > curTime + Constants.MAX_TIMEDRIFT || block.getTimestamp() <= previousLastBlock.getTimestamp()) {
@@ -676,6 +1102,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 if (block.getId() == 0L || BlockDb.hasBlock(block.getId())) {
                     throw new BlockNotAcceptedException("Duplicate block or invalid id");
                 }
+                // below a checkpoint confirmed by the peer the blocks are anchored to it by their hashes, signatures are
+                // not checked, the generation signature and hit still are
+                if (previousLastBlock.getHeight() + 1 < trustedHeight) {
+                    block.trustSignatures();
+                }
                 if (!block.verifyGenerationSignature() && !Generator.allowsFakeForging(block.getGeneratorPublicKey())) {
                     throw new BlockNotAcceptedException("Generation signature verification failed");
                 }
@@ -778,6 +1209,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Db.db.commitTransaction();
             } catch (Exception e) {
                 Db.db.rollbackTransaction();
+                BlockDb.uncacheBlocksFrom(previousLastBlock.getHeight() + 1);
                 blockchain.setLastBlock(previousLastBlock);
                 throw e;
             } finally {
@@ -827,9 +1259,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     poppedOffBlocks.add(block);
                     block = popLastBlock();
                 }
-                for (DerivedDbTable table : derivedTables) {
-                    table.rollback(commonBlock.getHeight());
-                }
+                rollbackDerivedTables(commonBlock.getHeight(), false);
                 Db.db.commitTransaction();
             } catch (RuntimeException e) {
                 Db.db.rollbackTransaction();
@@ -842,6 +1272,27 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         } // synchronized
     }
 
+    private void rollbackDerivedTables(int height, boolean truncate) {
+        long totalTime = 0;
+        StringBuilder tableTimes = new StringBuilder();
+        for (DerivedDbTable table : derivedTables) {
+            long startTime = System.currentTimeMillis();
+            if (truncate) {
+                table.truncate();
+            } else {
+                table.rollback(height);
+            }
+            long time = System.currentTimeMillis() - startTime;
+            totalTime += time;
+            if (time > 0) {
+                tableTimes.append(' ').append(table).append(' ').append(time).append(" ms");
+            }
+        }
+        TransactionProcessorImpl.getInstance().rollbackUnconfirmedTransactions(truncate ? -1 : height);
+        Logger.logDebugMessage((truncate ? "Truncated derived tables" : "Rolled back derived tables to height " + height)
+                + " in " + totalTime + " ms" + (tableTimes.length() > 0 ? ":" + tableTimes : ""));
+    }
+
     private BlockImpl popLastBlock() {
         BlockImpl block = blockchain.getLastBlock();
         if (block.getId() == Genesis.GENESIS_BLOCK_ID) {
@@ -874,6 +1325,143 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 : 3;
     }
 
+    /**
+     * A block read by scan, with the result of loading it, and the signature checks and parsing back of the block and
+     * its transactions done ahead on the verifier pool
+     */
+    private static final class ScannedBlock {
+
+        private final BlockImpl block;
+        private final NxtException.ValidationException validationException;
+        private final RuntimeException runtimeException;
+        private Future<Boolean> parsedBack;
+
+        private ScannedBlock(BlockImpl block, NxtException.ValidationException validationException, RuntimeException runtimeException) {
+            this.block = block;
+            this.validationException = validationException;
+            this.runtimeException = runtimeException;
+        }
+
+        private BlockImpl getBlock() throws NxtException.ValidationException {
+            if (validationException != null) {
+                throw validationException;
+            }
+            if (runtimeException != null) {
+                throw runtimeException;
+            }
+            return block;
+        }
+
+        private boolean isParsedBack() {
+            if (parsedBack == null) {
+                return false;
+            }
+            try {
+                return parsedBack.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+
+    }
+
+    /**
+     * Reads blocks until there are scanAhead of them waiting to be applied, and returns false if none is left. When
+     * validating, the checks of each block which do not depend on the blocks before it are started on the verifier
+     * pool. Only once the blockchain is past the NQT block, as the transaction bytes depend on the height before.
+     */
+    private boolean readScannedBlocks(Connection con, ResultSet rs, Deque<ScannedBlock> scannedBlocks, int scanAhead,
+                                      boolean validate) throws SQLException {
+        while (scannedBlocks.size() < scanAhead && rs.next()) {
+            ScannedBlock scannedBlock;
+            try {
+                scannedBlock = new ScannedBlock(BlockDb.loadBlock(con, rs), null, null);
+            } catch (NxtException.ValidationException e) {
+                scannedBlock = new ScannedBlock(null, e, null);
+            } catch (RuntimeException e) {
+                scannedBlock = new ScannedBlock(null, null, e);
+            }
+            final BlockImpl block = scannedBlock.block;
+            if (validate && signatureVerifier != null && block != null && block.getId() != Genesis.GENESIS_BLOCK_ID
+                    && blockchain.getHeight() >= Constants.NQT_BLOCK) {
+                try {
+                    // the public keys are looked up here, in the thread of the database transaction. A key which is
+                    // only set by a block not yet applied is not found, the block is then left to the checks in scan,
+                    // as the verifier pool would look it up outside the transaction
+                    boolean keysLoaded = block.getGeneratorPublicKey() != null;
+                    for (TransactionImpl transaction : block.getTransactions()) {
+                        keysLoaded = transaction.getSenderPublicKey() != null && keysLoaded;
+                    }
+                    if (keysLoaded) {
+                        scannedBlock.parsedBack = signatureVerifier.submit(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() throws NxtException.ValidationException {
+                                block.preVerifyBlockSignature();
+                                for (TransactionImpl transaction : block.getTransactions()) {
+                                    transaction.preVerifySignature();
+                                }
+                                return isParsedBack(block);
+                            }
+                        });
+                    }
+                } catch (RuntimeException e) {
+                    // left to the checks in scan, which will fail the same way
+                }
+            }
+            scannedBlocks.add(scannedBlock);
+        }
+        return !scannedBlocks.isEmpty();
+    }
+
+    /**
+     * Returns true if the block and its transactions give the same bytes when parsed back from their JSON, and from
+     * their bytes for transactions after the NQT block
+     */
+    private static boolean isParsedBack(BlockImpl block) throws NxtException.ValidationException {
+        TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
+        byte[] blockBytes = block.getBytes();
+        JSONObject blockJSON = (JSONObject) JSONValue.parse(block.getJSONObject().toJSONString());
+        if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).getBytes())) {
+            return false;
+        }
+        for (TransactionImpl transaction : block.getTransactions()) {
+            byte[] transactionBytes = transaction.getBytes();
+            if (block.getHeight() > Constants.NQT_BLOCK
+                    && !Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionBytes).getBytes())) {
+                return false;
+            }
+            JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
+            if (!Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionJSON).getBytes())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses checkpoints given as height:blockId, the blocks up to the highest checkpoint which a peer has blocks after
+     * are accepted without checking their signatures, and each checkpoint block is verified to have the expected id
+     * once it is pushed
+     */
+    private static SortedMap<Integer,Long> parseCheckpoints(List<String> values) {
+        SortedMap<Integer,Long> checkpoints = new TreeMap<>();
+        for (String value : values) {
+            int i = value.indexOf(':');
+            try {
+                if (i < 0) {
+                    throw new IllegalArgumentException("Missing block id");
+                }
+                checkpoints.put(Integer.parseInt(value.substring(0, i).trim()), Convert.parseUnsignedLong(value.substring(i + 1).trim()));
+            } catch (RuntimeException e) {
+                Logger.logErrorMessage("Invalid checkpoint " + value + ", ignored: " + e.toString());
+            }
+        }
+        return Collections.unmodifiableSortedMap(checkpoints);
+    }
+
     private boolean verifyChecksum(byte[] validChecksum) {
         MessageDigest digest = Crypto.sha256();
         try (Connection con = Db.db.getConnection();
@@ -914,23 +1502,43 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
     };
 
+    /**
+     * Order in which unconfirmed transactions are considered for a new block: by the height at which they were received,
+     * so that the transactions of popped off blocks come first, then by fee per byte, then by arrival
+     */
+    private static final Comparator<UnconfirmedTransaction> transactionPriorityComparator = new Comparator<UnconfirmedTransaction>() {
+        @Override
+        public int compare(UnconfirmedTransaction o1, UnconfirmedTransaction o2) {
+            int result = Integer.compare(o1.getHeight(), o2.getHeight());
+            if (result != 0) {
+                return result;
+            }
+            result = Long.compare(o2.getFeePerByte(), o1.getFeePerByte());
+            if (result != 0) {
+                return result;
+            }
+            result = Long.compare(o1.getArrivalTimestamp(), o2.getArrivalTimestamp());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getId(), o2.getId());
+        }
+    };
+
     void generateBlock(String secretPhrase, int blockTimestamp) throws BlockNotAcceptedException {
 
+        long startTime = System.currentTimeMillis();
         TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
-        List<UnconfirmedTransaction> orderedUnconfirmedTransactions = new ArrayList<>();
-        try (FilteringIterator<UnconfirmedTransaction> unconfirmedTransactions = new FilteringIterator<>(transactionProcessor.getAllUnconfirmedTransactions(),
-                new Filter<UnconfirmedTransaction>() {
-                    @Override
-                    public boolean ok(UnconfirmedTransaction transaction) {
-                        return hasAllReferencedTransactions(transaction, transaction.getTimestamp(), 0);
-                    }
-                })) {
-            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                orderedUnconfirmedTransactions.add(unconfirmedTransaction);
-            }
+        PriorityQueue<UnconfirmedTransaction> candidateTransactions = new PriorityQueue<>(64, transactionPriorityComparator);
+        int minTransactionLength = Integer.MAX_VALUE;
+        for (UnconfirmedTransaction unconfirmedTransaction : transactionProcessor.getAllUnconfirmedTransactions()) {
+            candidateTransactions.add(unconfirmedTransaction);
+            minTransactionLength = Math.min(minTransactionLength, unconfirmedTransaction.getTransaction().getSize());
         }
+        int candidateCount = candidateTransactions.size();
 
         BlockImpl previousBlock = blockchain.getLastBlock();
+        int transactionVersion = transactionProcessor.getTransactionVersion(previousBlock.getHeight());
 
         SortedSet<UnconfirmedTransaction> sortedTransactions = new TreeSet<>(transactionArrivalComparator);
 
@@ -939,57 +1547,72 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         long totalAmountNQT = 0;
         long totalFeeNQT = 0;
         int payloadLength = 0;
+        int rejectedCount = 0;
+        int tooLongCount = 0;
 
-        while (payloadLength <= Constants.MAX_PAYLOAD_LENGTH && sortedTransactions.size() <= Constants.MAX_NUMBER_OF_TRANSACTIONS) {
+        // a single pass in order of priority, until no candidate is left or not even the shortest one can still fit
+        while (! candidateTransactions.isEmpty() && sortedTransactions.size() < Constants.MAX_NUMBER_OF_TRANSACTIONS
+                && payloadLength + minTransactionLength <= Constants.MAX_PAYLOAD_LENGTH) {
 
-            int prevNumberOfNewTransactions = sortedTransactions.size();
+            UnconfirmedTransaction unconfirmedTransaction = candidateTransactions.poll();
 
-            for (UnconfirmedTransaction unconfirmedTransaction : orderedUnconfirmedTransactions) {
+            int transactionLength = unconfirmedTransaction.getTransaction().getSize();
+            if (payloadLength + transactionLength > Constants.MAX_PAYLOAD_LENGTH) {
+                tooLongCount += 1;
+                continue;
+            }
 
-                int transactionLength = unconfirmedTransaction.getTransaction().getSize();
-                if (sortedTransactions.contains(unconfirmedTransaction) || payloadLength + transactionLength > Constants.MAX_PAYLOAD_LENGTH) {
-                    continue;
-                }
+            if (unconfirmedTransaction.getVersion() != transactionVersion) {
+                rejectedCount += 1;
+                continue;
+            }
 
-                if (unconfirmedTransaction.getVersion() != transactionProcessor.getTransactionVersion(previousBlock.getHeight())) {
-                    continue;
-                }
+            if (unconfirmedTransaction.getTimestamp() > blockTimestamp + Constants.MAX_TIMEDRIFT || unconfirmedTransaction.getExpiration() < blockTimestamp) {
+                rejectedCount += 1;
+                continue;
+            }
 
-                if (unconfirmedTransaction.getTimestamp() > blockTimestamp + Constants.MAX_TIMEDRIFT || unconfirmedTransaction.getExpiration() < blockTimestamp) {
-                    continue;
-                }
+            // a referenced transaction must already be confirmed, a transaction referencing an unconfirmed one waits for a later block
+            if (! hasAllReferencedTransactions(unconfirmedTransaction, unconfirmedTransaction.getTimestamp(), 0)) {
+                rejectedCount += 1;
+                continue;
+            }
 
-                try {
-                    unconfirmedTransaction.getTransaction().validate();
-                } catch (NxtException.NotCurrentlyValidException e) {
-                    continue;
-                } catch (NxtException.ValidationException e) {
-                    transactionProcessor.removeUnconfirmedTransaction(unconfirmedTransaction.getTransaction());
-                    continue;
-                }
+            try {
+                unconfirmedTransaction.getTransaction().validate();
+            } catch (NxtException.NotCurrentlyValidException e) {
+                rejectedCount += 1;
+                continue;
+            } catch (NxtException.ValidationException e) {
+                transactionProcessor.removeUnconfirmedTransaction(unconfirmedTransaction.getTransaction());
+                rejectedCount += 1;
+                continue;
+            }
 
-                if (unconfirmedTransaction.getTransaction().isDuplicate(duplicates)) {
-                    continue;
-                }
+            if (unconfirmedTransaction.getTransaction().isDuplicate(duplicates)) {
+                rejectedCount += 1;
+                continue;
+            }
 
-                /*
-                if (!EconomicClustering.verifyFork(transaction)) {
-                    Logger.logDebugMessage("Including transaction that was generated on a fork: " + transaction.getStringId()
-                            + " ecBlockHeight " + transaction.getECBlockHeight() + " ecBlockId " + Convert.toUnsignedLong(transaction.getECBlockId()));
-                    //continue;
-                }
-                */
+            /*
+            if (!EconomicClustering.verifyFork(transaction)) {
+                Logger.logDebugMessage("Including transaction that was generated on a fork: " + transaction.getStringId()
+                        + " ecBlockHeight " + transaction.getECBlockHeight() + " ecBlockId " + Convert.toUnsignedLong(transaction.getECBlockId()));
+                //continue;
+            }
+            */
 
-                sortedTransactions.add(unconfirmedTransaction);
-                payloadLength += transactionLength;
-                totalAmountNQT += unconfirmedTransaction.getAmountNQT();
-                totalFeeNQT += unconfirmedTransaction.getFeeNQT();
+            sortedTransactions.add(unconfirmedTransaction);
+            payloadLength += transactionLength;
+            totalAmountNQT += unconfirmedTransaction.getAmountNQT();
+            totalFeeNQT += unconfirmedTransaction.getFeeNQT();
 
-            }
+        }
 
-            if (sortedTransactions.size() == prevNumberOfNewTransactions) {
-                break;
-            }
+        if (candidateCount > 0) {
+            Logger.logDebugMessage("Selected " + sortedTransactions.size() + " of " + candidateCount + " unconfirmed transactions, "
+                    + rejectedCount + " rejected, " + tooLongCount + " too long, " + candidateTransactions.size() + " not considered, "
+                    + "payload " + payloadLength + " bytes, in " + (System.currentTimeMillis() - startTime) + " ms");
         }
 
         List<TransactionImpl> blockTransactions = new ArrayList<>();
@@ -1007,7 +1630,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         byte[] generationSignature = digest.digest(publicKey);
 
         BlockImpl block;
-        byte[] previousBlockHash = Crypto.sha256().digest(previousBlock.getBytes());
+        byte[] previousBlockHash = previousBlock.getHash().clone();
 
         try {
 
@@ -1059,6 +1682,13 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
     }
 
+    private void notifyScanned(List<BlockImpl> blocks) {
+        for (BlockImpl block : blocks) {
+            blockListeners.notify(block, Event.BLOCK_SCANNED);
+        }
+        blocks.clear();
+    }
+
     @Override
     public void scan(int height, boolean validate) {
         scheduleScan(height, validate);
@@ -1081,18 +1711,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             }
             try (Connection con = Db.db.beginTransaction();
                  PreparedStatement pstmtSelect = con.prepareStatement("SELECT * FROM block WHERE height >= ? ORDER BY db_id ASC");
-                 PreparedStatement pstmtDone = con.prepareStatement("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE")) {
+                 PreparedStatement pstmtDone = con.prepareStatement("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE, unconfirmed_height = NULL")) {
                 isScanning = true;
                 transactionProcessor.requeueAllUnconfirmedTransactions();
-                for (DerivedDbTable table : derivedTables) {
-                    if (height == 0) {
-                        table.truncate();
-                    } else {
-                        table.rollback(height - 1);
-                    }
-                }
+                rollbackDerivedTables(height - 1, height == 0);
                 Db.db.commitTransaction();
-                Logger.logDebugMessage("Rolled back derived tables");
                 pstmtSelect.setInt(1, height);
                 BlockImpl currentBlock = BlockDb.findBlockAtHeight(height);
                 blockListeners.notify(currentBlock, Event.RESCAN_BEGIN);
@@ -1104,9 +1727,29 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     blockchain.setLastBlock(BlockDb.findBlockAtHeight(height - 1));
                 }
                 try (ResultSet rs = pstmtSelect.executeQuery()) {
-                    while (rs.next()) {
+                    Deque<ScannedBlock> scannedBlocks = new ArrayDeque<>();
+                    int scanAhead = validate && signatureVerifier != null ? SCAN_VALIDATION_AHEAD : 1;
+                    // blocks applied since the last commit, replayed one by one if one of them fails
+                    List<ScannedBlock> uncommittedBlocks = new ArrayList<>();
+                    // BLOCK_SCANNED is only notified once the blocks are committed, a replayed block is not notified twice
+                    List<BlockImpl> unnotifiedBlocks = new ArrayList<>();
+                    int replayBlocks = 0;
+                    BlockImpl lastCommittedBlock = blockchain.getLastBlock();
+                    long lastCommittedBlockId = currentBlockId;
+                    long lastCommitTime = System.currentTimeMillis();
+                    if (scanCommitBlocks > 1) {
+                        Db.db.commitTransaction();
+                    }
+                    while (readScannedBlocks(con, rs, scannedBlocks, scanAhead, validate)) {
+                        ScannedBlock scannedBlock = scannedBlocks.poll();
+                        uncommittedBlocks.add(scannedBlock);
+                        boolean replay = replayBlocks > 0;
+                        if (replay) {
+                            replayBlocks -= 1;
+                        }
+                        boolean notifyScanned = false;
                         try {
-                            currentBlock = BlockDb.loadBlock(con, rs);
+                            currentBlock = scannedBlock.getBlock();
                             if (currentBlock.getId() != currentBlockId) {
                                 throw new NxtException.NotValidException("Database blocks in the wrong order!");
                             }
@@ -1120,10 +1763,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                                 if (currentBlock.getVersion() != getBlockVersion(blockchain.getHeight())) {
                                     throw new NxtException.NotValidException("Invalid block version");
                                 }
-                                byte[] blockBytes = currentBlock.getBytes();
-                                JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
-                                if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).getBytes())) {
-                                    throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
+                                // parsing back is only done here if it failed or was not done ahead
+                                boolean parsedBack = scannedBlock.isParsedBack();
+                                if (!parsedBack) {
+                                    byte[] blockBytes = currentBlock.getBytes();
+                                    JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
+                                    if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).getBytes())) {
+                                        throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
+                                    }
                                 }
                                 Map<TransactionType, Map<String, Boolean>> duplicates = new HashMap<>();
                                 for (TransactionImpl transaction : currentBlock.getTransactions()) {
@@ -1145,45 +1792,77 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                                     if (transaction.isDuplicate(duplicates)) {
                                         throw new NxtException.NotValidException("Transaction is a duplicate: " + transaction.getStringId());
                                     }
-                                    byte[] transactionBytes = transaction.getBytes();
-                                    if (currentBlock.getHeight() > Constants.NQT_BLOCK
-                                            && !Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionBytes).getBytes())) {
-                                        throw new NxtException.NotValidException("Transaction bytes cannot be parsed back to the same transaction");
-                                    }
-                                    JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
-                                    if (!Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionJSON).getBytes())) {
-                                        throw new NxtException.NotValidException("Transaction JSON cannot be parsed back to the same transaction");
+                                    if (!parsedBack) {
+                                        byte[] transactionBytes = transaction.getBytes();
+                                        if (currentBlock.getHeight() > Constants.NQT_BLOCK
+                                                && !Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionBytes).getBytes())) {
+                                            throw new NxtException.NotValidException("Transaction bytes cannot be parsed back to the same transaction");
+                                        }
+                                        JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
+                                        if (!Arrays.equals(transactionBytes, transactionProcessor.parseTransaction(transactionJSON).getBytes())) {
+                                            throw new NxtException.NotValidException("Transaction JSON cannot be parsed back to the same transaction");
+                                        }
                                     }
                                 }
                             }
                             blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_ACCEPT);
                             blockchain.setLastBlock(currentBlock);
                             accept(currentBlock);
+                            unnotifiedBlocks.add(currentBlock);
                             currentBlockId = currentBlock.getNextBlockId();
-                            Db.db.commitTransaction();
+                            if (replay || uncommittedBlocks.size() >= scanCommitBlocks
+                                    || (scanCommitInterval > 0 && System.currentTimeMillis() - lastCommitTime >= scanCommitInterval)) {
+                                Db.db.commitTransaction();
+                                uncommittedBlocks.clear();
+                                lastCommittedBlock = currentBlock;
+                                lastCommittedBlockId = currentBlockId;
+                                lastCommitTime = System.currentTimeMillis();
+                                notifyScanned = true;
+                            } else {
+                                Db.db.flushPendingWrites();
+                            }
                         } catch (NxtException | RuntimeException e) {
                             Db.db.rollbackTransaction();
+                            unnotifiedBlocks.clear();
+                            if (uncommittedBlocks.size() > 1) {
+                                Logger.logDebugMessage("Applying block " + Convert.toUnsignedLong(currentBlockId) + " failed, replaying the "
+                                        + uncommittedBlocks.size() + " blocks since the last commit one by one: " + e.toString());
+                                for (int i = uncommittedBlocks.size() - 1; i >= 0; i--) {
+                                    scannedBlocks.addFirst(uncommittedBlocks.get(i));
+                                }
+                                replayBlocks = uncommittedBlocks.size();
+                                uncommittedBlocks.clear();
+                                currentBlockId = lastCommittedBlockId;
+                                blockchain.setLastBlock(lastCommittedBlock);
+                                continue;
+                            }
+                            uncommittedBlocks.clear();
                             Logger.logDebugMessage(e.toString(), e);
                             Logger.logDebugMessage("Applying block " + Convert.toUnsignedLong(currentBlockId) + " at height "
                                     + (currentBlock == null ? 0 : currentBlock.getHeight()) + " failed, deleting from database");
                             if (currentBlock != null) {
                                 transactionProcessor.processLater(currentBlock.getTransactions());
                             }
-                            while (rs.next()) {
+                            while (readScannedBlocks(con, rs, scannedBlocks, 1, false)) {
                                 try {
-                                    currentBlock = BlockDb.loadBlock(con, rs);
+                                    currentBlock = scannedBlocks.poll().getBlock();
                                     transactionProcessor.processLater(currentBlock.getTransactions());
                                 } catch (NxtException.ValidationException ignore) {
                                 }
                             }
                             BlockDb.deleteBlocksFrom(currentBlockId);
                             blockchain.setLastBlock(BlockDb.findLastBlock());
+                            unnotifiedBlocks.add(currentBlock);
+                            notifyScanned = true;
+                        }
+                        if (notifyScanned) {
+                            notifyScanned(unnotifiedBlocks);
                         }
-                        blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
                     }
+                    pstmtDone.executeUpdate();
+                    Db.db.commitTransaction();
+                    notifyScanned(unnotifiedBlocks);
                 }
-                pstmtDone.executeUpdate();
-                Db.db.commitTransaction();
                 blockListeners.notify(currentBlock, Event.RESCAN_END);
                 Logger.logMessage("...done at height " + Nxt.getBlockchain().getHeight());
             } catch (SQLException e) {
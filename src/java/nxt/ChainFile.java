@@ -0,0 +1,234 @@
+package nxt;
+
+import nxt.util.Convert;
+import nxt.util.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only file of the blocks after the genesis block and of their transactions, in their byte form, used to
+ * bootstrap a node without peers and without copying the database of another one. A block is written as the length
+ * and bytes of the block, the number of its transactions, then the length and bytes of each transaction.
+ * <p>
+ * The height index is kept next to it in a file with the .index suffix, with for each height from 1 the offset of the
+ * end of the block in the chain file and the block id. An existing chain file is extended from its last block, if that
+ * block is still part of the blockchain.
+ * <p>
+ * Imported blocks are pushed with all the checks applied to downloaded blocks, the block ids of the index are only
+ * used to reject a file which does not continue the current blockchain before anything is pushed.
+ */
+public final class ChainFile {
+
+    private static final byte[] MAGIC = "NXTCHAIN".getBytes(StandardCharsets.UTF_8);
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+    private static final int BATCH_SIZE = 720;
+    private static final int MAX_MAPPED_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Appends the blocks up to height to the chain file, which is created if it does not exist. Blocks which can still
+     * be popped off are not exported, so that the file never needs to be truncated. Returns the height of the last
+     * block in the file.
+     */
+    public static int exportChain(File file, int height) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        int maxHeight = Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0);
+        if (height > maxHeight) {
+            throw new IllegalArgumentException("Height " + height + " above the highest block which can not be popped off " + maxHeight);
+        }
+        File indexFile = getIndexFile(file);
+        long start = System.currentTimeMillis();
+        try (RandomAccessFile chain = new RandomAccessFile(file, "rw");
+             RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+            int lastHeight = (int) (index.length() / 16);
+            // a partial entry was left by an interrupted export, the entries appended after it would be misaligned
+            index.setLength((long) lastHeight * 16);
+            long endOffset = HEADER_LENGTH;
+            if (lastHeight > 0) {
+                index.seek((long) (lastHeight - 1) * 16);
+                endOffset = index.readLong();
+                long lastBlockId = index.readLong();
+                if (lastHeight > blockchain.getHeight() || blockchain.getBlockIdAtHeight(lastHeight) != lastBlockId) {
+                    throw new IllegalStateException("Last block " + Convert.toUnsignedLong(lastBlockId) + " of the chain file at height "
+                            + lastHeight + " is not part of the blockchain");
+                }
+                readHeader(chain);
+            } else {
+                chain.setLength(0);
+                chain.write(MAGIC);
+                chain.writeInt(VERSION);
+            }
+            if (chain.length() < endOffset) {
+                throw new IllegalStateException("Chain file is shorter than its index");
+            }
+            // anything after the last indexed block was left by an interrupted export
+            chain.setLength(endOffset);
+            Logger.logMessage("Exporting blocks " + (lastHeight + 1) + " to " + height + " to " + file.getAbsolutePath());
+            try (DataOutputStream chainOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+                 DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true), 65536))) {
+                for (int fromHeight = lastHeight + 1; fromHeight <= height; fromHeight += BATCH_SIZE) {
+                    for (BlockImpl block : loadBlocks(fromHeight, Math.min(fromHeight + BATCH_SIZE - 1, height))) {
+                        byte[] blockBytes = block.getBytes();
+                        List<TransactionImpl> transactions = block.getTransactions();
+                        chainOut.writeInt(blockBytes.length);
+                        chainOut.write(blockBytes);
+                        chainOut.writeInt(transactions.size());
+                        endOffset += 4 + blockBytes.length + 4;
+                        for (TransactionImpl transaction : transactions) {
+                            byte[] transactionBytes = transaction.getNQTBytes();
+                            chainOut.writeInt(transactionBytes.length);
+                            chainOut.write(transactionBytes);
+                            endOffset += 4 + transactionBytes.length;
+                        }
+                        // the index entry is only written once the block is, an interrupted export is resumed from it
+                        chainOut.flush();
+                        indexOut.writeLong(endOffset);
+                        indexOut.writeLong(block.getId());
+                    }
+                    indexOut.flush();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        int lastHeight = (int) (indexFile.length() / 16);
+        Logger.logMessage("Exported chain file up to height " + lastHeight + " in " + (System.currentTimeMillis() - start) / 1000 + " s");
+        return lastHeight;
+    }
+
+    /**
+     * Pushes the blocks of the chain file after the last block of the blockchain, up to height, or up to the end of
+     * the file if height is 0. The last block of the blockchain must be in the file, or be the genesis block.
+     */
+    public static void importChain(File file, int height) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        BlockchainProcessorImpl blockchainProcessor = BlockchainProcessorImpl.getInstance();
+        File indexFile = getIndexFile(file);
+        try (RandomAccessFile chain = new RandomAccessFile(file, "r");
+             RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+             FileChannel chainChannel = chain.getChannel();
+             FileChannel indexChannel = index.getChannel()) {
+            readHeader(chain);
+            LongBuffer entries = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size() / 16 * 16).asLongBuffer();
+            int lastHeight = entries.limit() / 2;
+            if (height <= 0 || height > lastHeight) {
+                height = lastHeight;
+            }
+            if (lastHeight > 0 && entries.get(lastHeight * 2 - 2) > chainChannel.size()) {
+                throw new IllegalStateException("Chain file is shorter than its index");
+            }
+            synchronized (blockchain) {
+                int fromHeight = blockchain.getHeight() + 1;
+                if (fromHeight > 1 && (fromHeight - 1 > lastHeight
+                        || entries.get(fromHeight * 2 - 3) != blockchain.getLastBlock().getId())) {
+                    throw new IllegalStateException("Last block " + blockchain.getLastBlock().getStringId() + " at height "
+                            + (fromHeight - 1) + " is not in the chain file");
+                }
+                if (fromHeight > height) {
+                    return;
+                }
+                long start = System.currentTimeMillis();
+                Logger.logMessage("Importing blocks " + fromHeight + " to " + height + " from " + file.getAbsolutePath());
+                blockchainProcessor.setGetMoreBlocks(false);
+                try {
+                    while (fromHeight <= height) {
+                        long fromOffset = fromHeight == 1 ? HEADER_LENGTH : entries.get(fromHeight * 2 - 4);
+                        int toHeight = fromHeight;
+                        while (toHeight < height && toHeight - fromHeight + 1 < BATCH_SIZE
+                                && entries.get(toHeight * 2) - fromOffset <= MAX_MAPPED_LENGTH) {
+                            toHeight += 1;
+                        }
+                        long toOffset = entries.get(toHeight * 2 - 2);
+                        MappedByteBuffer buffer = chainChannel.map(FileChannel.MapMode.READ_ONLY, fromOffset, toOffset - fromOffset);
+                        List<BlockImpl> blocks = new ArrayList<>(toHeight - fromHeight + 1);
+                        for (int blockHeight = fromHeight; blockHeight <= toHeight; blockHeight++) {
+                            BlockImpl block = readBlock(buffer);
+                            if (block.getId() != entries.get(blockHeight * 2 - 1)) {
+                                throw new IllegalStateException("Block " + block.getStringId() + " at height " + blockHeight
+                                        + " does not match the index of the chain file");
+                            }
+                            blocks.add(block);
+                        }
+                        blockchainProcessor.pushBlocks(blocks);
+                        fromHeight = toHeight + 1;
+                    }
+                } catch (NxtException e) {
+                    throw new RuntimeException("Chain file import failed at height " + (blockchain.getHeight() + 1) + ": " + e.getMessage(), e);
+                } finally {
+                    blockchainProcessor.setGetMoreBlocks(true);
+                }
+                Logger.logMessage("Imported chain file up to height " + blockchain.getHeight() + " in "
+                        + (System.currentTimeMillis() - start) / 1000 + " s");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static File getIndexFile(File file) {
+        return new File(file.getPath() + ".index");
+    }
+
+    private static void readHeader(RandomAccessFile chain) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        chain.seek(0);
+        chain.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC) || chain.readInt() != VERSION) {
+            throw new IllegalStateException("Not a chain file or unsupported version");
+        }
+    }
+
+    private static BlockImpl readBlock(ByteBuffer buffer) throws NxtException.ValidationException {
+        byte[] blockBytes = new byte[buffer.getInt()];
+        buffer.get(blockBytes);
+        int numberOfTransactions = buffer.getInt();
+        List<TransactionImpl> transactions = new ArrayList<>(numberOfTransactions);
+        for (int i = 0; i < numberOfTransactions; i++) {
+            byte[] transactionBytes = new byte[buffer.getInt()];
+            buffer.get(transactionBytes);
+            transactions.add(TransactionImpl.parseTransaction(transactionBytes));
+        }
+        return BlockImpl.parseBlock(blockBytes, transactions);
+    }
+
+    private static List<BlockImpl> loadBlocks(int fromHeight, int toHeight) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE height >= ? AND height <= ? ORDER BY height")) {
+            pstmt.setInt(1, fromHeight);
+            pstmt.setInt(2, toHeight);
+            TransactionDb.BlockTransactions blockTransactions = new TransactionDb.BlockTransactions(fromHeight, toHeight);
+            List<BlockImpl> blocks = new ArrayList<>(toHeight - fromHeight + 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    BlockImpl block = BlockDb.loadBlock(con, rs);
+                    block.setTransactionsLoader(blockTransactions);
+                    blocks.add(block);
+                }
+            }
+            if (blocks.size() != toHeight - fromHeight + 1) {
+                throw new IllegalStateException("Blocks " + fromHeight + " to " + toHeight + " changed during the export");
+            }
+            return blocks;
+        } catch (SQLException|NxtException.ValidationException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ public final class Db {
             .maxConnections(Nxt.getIntProperty("nxt.maxDbConnections"))
             .loginTimeout(Nxt.getIntProperty("nxt.dbLoginTimeout"))
             .defaultLockTimeout(Nxt.getIntProperty("nxt.dbDefaultLockTimeout") * 1000)
+            .statementCacheSize(Nxt.getIntProperty("nxt.dbStatementCacheSize"))
     );
 
     /*
@@ -23,6 +23,11 @@ public final class EconomicClustering {
         if (timestamp < block.getTimestamp() - Constants.MAX_TIMEDRIFT) {
             throw new IllegalArgumentException("Timestamp cannot be more than 15 s earlier than last block timestamp: " + block.getTimestamp());
         }
+        Block ecBlock = BlockDb.findCachedBlockBefore(Math.max(block.getHeight() - Constants.EC_BLOCK_DISTANCE_LIMIT, 0),
+                block.getHeight(), timestamp - Constants.EC_RULE_TERMINATOR);
+        if (ecBlock != null) {
+            return ecBlock;
+        }
         int distance = 0;
         while (block.getTimestamp() > timestamp - Constants.EC_RULE_TERMINATOR && distance < Constants.EC_BLOCK_DISTANCE_LIMIT) {
             block = blockchain.getBlock(block.getPreviousBlockId());
@@ -41,8 +46,10 @@ public final class EconomicClustering {
         if (blockchain.getHeight() - transaction.getECBlockHeight() > Constants.EC_BLOCK_DISTANCE_LIMIT) {
             return false;
         }
-        Block ecBlock = blockchain.getBlock(transaction.getECBlockId());
-        return ecBlock != null && ecBlock.getHeight() == transaction.getECBlockHeight();
+        if (transaction.getECBlockHeight() < 0 || transaction.getECBlockHeight() > blockchain.getHeight()) {
+            return false;
+        }
+        return blockchain.getBlockIdAtHeight(transaction.getECBlockHeight()) == transaction.getECBlockId();
     }
 
 }
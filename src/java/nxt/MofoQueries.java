@@ -212,7 +212,7 @@ public final class MofoQueries {
             int i = 0;
             pstmt.setInt(++i, timestamp);
             pstmt.setInt(++i, limit);
-            return Nxt.getBlockchain().getBlocks(con, pstmt);
+            return getBlocksWithTransactions(con, pstmt);
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
@@ -231,13 +231,30 @@ public final class MofoQueries {
             pstmt.setLong(++i, account.getId());
             pstmt.setInt(++i, timestamp);
             pstmt.setInt(++i, limit);
-            return Nxt.getBlockchain().getBlocks(con, pstmt);
+            return getBlocksWithTransactions(con, pstmt);
         } catch (SQLException e) {
             DbUtils.close(con);
             throw new RuntimeException(e.toString(), e);
         }
     }
     
+    /**
+     * The transactions of the blocks read from the iterator are loaded together, by one query for all blocks read
+     * before the transactions of one of them are first needed
+     */
+    private static DbIterator<BlockImpl> getBlocksWithTransactions(Connection con, PreparedStatement pstmt) {
+        final TransactionDb.BlockTransactions blockTransactions = new TransactionDb.BlockTransactions();
+        return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<BlockImpl>() {
+            @Override
+            public BlockImpl get(Connection con, ResultSet rs) throws NxtException.ValidationException {
+                BlockImpl block = BlockDb.loadBlock(con, rs);
+                blockTransactions.add(block.getId());
+                block.setTransactionsLoader(blockTransactions);
+                return block;
+            }
+        });
+    }
+
     public static Block getLastBlock(long account_id) {
         Connection con = null;
         try {
@@ -387,83 +404,74 @@ public final class MofoQueries {
     }
     
     public static List<Transaction> getUnconfirmedTransactions(Account account, int timestamp, int limit, List<TransactionFilter> filters) {
-        try (
-            DbIterator<? extends Transaction> iterator = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()
-        ) {
-            List<Transaction> result = new ArrayList<Transaction>();
-            List<TransactionFilter> inclusive = null;
-            List<TransactionFilter> exclusive = null;
-            if (filters != null) {
-                inclusive = new ArrayList<TransactionFilter>();
-                exclusive = new ArrayList<TransactionFilter>();              
-                
-                /* Split the filters in inclusive and exclusive filters */
-                for (int i=0; i<filters.size(); i++) {
-                    if (filters.get(i) instanceof InclusiveTransactionFilter) {
-                        inclusive.add(filters.get(i));
-                    }
-                    else {
-                        exclusive.add(filters.get(i));
-                    }
+        List<? extends Transaction> unconfirmedTransactions = account != null
+                ? Nxt.getTransactionProcessor().getUnconfirmedTransactions(account.getId())
+                : Nxt.getTransactionProcessor().getAllUnconfirmedTransactions();
+        List<Transaction> result = new ArrayList<Transaction>();
+        List<TransactionFilter> inclusive = null;
+        List<TransactionFilter> exclusive = null;
+        if (filters != null) {
+            inclusive = new ArrayList<TransactionFilter>();
+            exclusive = new ArrayList<TransactionFilter>();              
+            
+            /* Split the filters in inclusive and exclusive filters */
+            for (int i=0; i<filters.size(); i++) {
+                if (filters.get(i) instanceof InclusiveTransactionFilter) {
+                    inclusive.add(filters.get(i));
+                }
+                else {
+                    exclusive.add(filters.get(i));
                 }
             }
+        }
+        
+        for (Transaction transaction : unconfirmedTransactions) {
             
-            while (iterator.hasNext()) {
-                Transaction transaction = iterator.next();
-                
-                /* skip those that are younger than timestamp */
-                if (transaction.getTimestamp() > timestamp) {
-                    continue;
-                }
-                
-                /* skip those not for our account */
-                if (account != null) {
-                    if (transaction.getSenderId() != account.getId() && transaction.getRecipientId() != account.getId()) {
+            /* skip those that are younger than timestamp */
+            if (transaction.getTimestamp() > timestamp) {
+                continue;
+            }
+            
+            /* skip those that don't match the filter */
+            if (filters != null) {
+              
+                /* Transaction must match one of these */
+                if ( ! inclusive.isEmpty()) {
+                    boolean ignore = true;
+                    for (TransactionFilter filter : inclusive) {
+                        if (filter.match(transaction)) {
+                            ignore = false;
+                        }
+                    }
+                    
+                    if (ignore) {
                         continue;
                     }
                 }
                 
-                /* skip those that don't match the filter */
-                if (filters != null) {
-                  
-                    /* Transaction must match one of these */
-                    if ( ! inclusive.isEmpty()) {
-                        boolean ignore = true;
-                        for (TransactionFilter filter : inclusive) {
-                            if (filter.match(transaction)) {
-                                ignore = false;
-                            }
-                        }
-                        
-                        if (ignore) {
-                            continue;
+                /* Transaction must NOT match any of these */
+                if ( ! exclusive.isEmpty()) {
+                    boolean ignore = false;
+                    for (TransactionFilter filter : exclusive) {
+                        if (filter.match(transaction)) {
+                            ignore = true;
+                            break;
                         }
                     }
                     
-                    /* Transaction must NOT match any of these */
-                    if ( ! exclusive.isEmpty()) {
-                        boolean ignore = false;
-                        for (TransactionFilter filter : exclusive) {
-                            if (filter.match(transaction)) {
-                                ignore = true;
-                                break;
-                            }
-                        }
-                        
-                        if (ignore) {
-                            continue;
-                        }                        
-                    }
+                    if (ignore) {
+                        continue;
+                    }                        
                 }
-                
-                result.add(transaction);
-                if (result.size() > limit) {
-                    break;
-                }                
             }
             
-            return result;
+            result.add(transaction);
+            if (result.size() > limit) {
+                break;
+            }                
         }
+        
+        return result;
     }
     
     public static List<Transaction> getUnconfirmedTransactions(int timestamp, int limit, List<TransactionFilter> filters) {
@@ -3,6 +3,7 @@ package nxt;
 import nxt.http.API;
 import nxt.peer.Peers;
 import nxt.user.Users;
+import nxt.util.Listeners;
 import nxt.util.Logger;
 import nxt.util.ThreadPool;
 import nxt.util.Time;
@@ -169,6 +170,8 @@ public final class Nxt {
         Users.shutdown();
         Peers.shutdown();
         ThreadPool.shutdown();
+        Listeners.shutdown();
+        TransactionProcessorImpl.getInstance().shutdown();
         Db.shutdown();
         Logger.logShutdownMessage("Nxt server " + VERSION + " stopped.");
         Logger.shutdown();
@@ -607,6 +607,21 @@ class NxtDbVersion extends DbVersion {
             case 232:
                 apply("CREATE INDEX IF NOT EXISTS trade_height_idx ON trade(height)");
             case 233:
+                apply("ALTER TABLE account_asset ADD COLUMN IF NOT EXISTS valid_until INT");
+            case 234:
+                apply("UPDATE account_asset AS a SET valid_until = IFNULL((SELECT MIN(b.height) FROM account_asset AS b "
+                        + "WHERE b.account_id = a.account_id AND b.asset_id = a.asset_id AND b.height > a.height), a.height) WHERE latest = FALSE");
+            case 235:
+                apply("CREATE INDEX IF NOT EXISTS account_asset_valid_until_idx ON account_asset (valid_until)");
+            case 236:
+                apply("CREATE INDEX IF NOT EXISTS account_asset_asset_id_height_idx ON account_asset (asset_id, height DESC)");
+            case 237:
+                apply("ALTER TABLE scan ADD COLUMN IF NOT EXISTS unconfirmed_height INT");
+            case 238:
+                apply("UPDATE scan SET unconfirmed_height = (SELECT MIN(height) FROM unconfirmed_transaction)");
+            case 239:
+                apply("DROP TABLE IF EXISTS unconfirmed_transaction");
+            case 240:
                 return;
             default:
                 throw new RuntimeException("Blockchain database inconsistent with code, probably trying to run older code on newer database");
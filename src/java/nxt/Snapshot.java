@@ -0,0 +1,388 @@
+package nxt;
+
+import nxt.crypto.Crypto;
+import nxt.db.DerivedDbTable;
+import nxt.util.Convert;
+import nxt.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot of the blockchain and of the state of all derived tables at a given height, used to bootstrap a node
+ * without applying every block. The file starts with the height and the id of the block at that height, and ends with
+ * the SHA-256 digest of everything before it, which is verified before anything is imported.
+ * <p>
+ * The digest only protects the file against corruption. On import the id of the last block is computed again from its
+ * imported fields and must match the block id given by the user, the derived tables are not verified against the
+ * blocks and must come from a trusted source.
+ */
+public final class Snapshot {
+
+    private static final String MAGIC = "NXTSNAPSHOT";
+    private static final int VERSION = 1;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte INT = 2;
+    private static final byte SHORT = 3;
+    private static final byte BYTE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte STRING = 6;
+    private static final byte BYTES = 7;
+    private static final byte ARRAY = 8;
+
+    /**
+     * Writes the blocks and transactions up to height, and the derived tables as of height, which must not be lower
+     * than the minimum rollback height. Block processing is suspended while the snapshot is written.
+     */
+    public static void exportSnapshot(int height, File file) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        BlockchainProcessorImpl blockchainProcessor = BlockchainProcessorImpl.getInstance();
+        synchronized (blockchain) {
+            if (height > blockchain.getHeight() || height < blockchainProcessor.getMinRollbackHeight()) {
+                throw new IllegalArgumentException("Height " + height + " not between " + blockchainProcessor.getMinRollbackHeight()
+                        + " and " + blockchain.getHeight());
+            }
+            BlockImpl block = blockchain.getBlockAtHeight(height);
+            long start = System.currentTimeMillis();
+            Logger.logMessage("Exporting snapshot at height " + height + " to " + file.getAbsolutePath());
+            MessageDigest digest = Crypto.sha256();
+            try (Connection con = Db.db.beginTransaction();
+                 FileOutputStream fileOut = new FileOutputStream(file);
+                 GZIPOutputStream gzipOut = new GZIPOutputStream(new BufferedOutputStream(fileOut), 65536)) {
+                DataOutputStream out = new DataOutputStream(new DigestOutputStream(gzipOut, digest));
+                // the state is brought back to height inside a transaction which is never committed
+                TransactionProcessorImpl.getInstance().undoAllUnconfirmedTransactions();
+                if (height < blockchain.getHeight()) {
+                    for (DerivedDbTable table : blockchainProcessor.getDerivedTables()) {
+                        table.rollback(height);
+                    }
+                }
+                out.writeUTF(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(height);
+                out.writeLong(block.getId());
+                exportTable(con, out, "block", height);
+                exportTable(con, out, "transaction", height);
+                // public_key is not rolled back by its table, rows above height are left out like those of the blocks
+                for (DerivedDbTable table : blockchainProcessor.getDerivedTables()) {
+                    exportTable(con, out, table.getTable(), height);
+                }
+                out.writeBoolean(false);
+                out.flush();
+                gzipOut.write(digest.digest());
+                gzipOut.finish();
+            } catch (IOException|SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            } finally {
+                Db.db.rollbackTransaction();
+                Db.db.endTransaction();
+            }
+            Logger.logMessage("Exported snapshot at height " + height + " block " + block.getStringId() + " in "
+                    + (System.currentTimeMillis() - start) / 1000 + " s");
+        }
+    }
+
+    private static void exportTable(Connection con, DataOutputStream out, String table, int height) throws IOException, SQLException {
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " WHERE height <= ? ORDER BY db_id")) {
+            pstmt.setInt(1, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                out.writeBoolean(true);
+                out.writeUTF(table);
+                out.writeInt(columnCount);
+                for (int i = 1; i <= columnCount; i++) {
+                    out.writeUTF(metaData.getColumnName(i));
+                }
+                int rows = 0;
+                while (rs.next()) {
+                    out.writeBoolean(true);
+                    for (int i = 1; i <= columnCount; i++) {
+                        writeValue(out, rs.getObject(i));
+                    }
+                    rows += 1;
+                }
+                out.writeBoolean(false);
+                Logger.logDebugMessage("Exported " + rows + " rows of table " + table);
+            }
+        }
+    }
+
+    /**
+     * Replaces the blockchain and all derived tables with the content of the snapshot, which is only accepted if it was
+     * taken at the block with id expectedBlockId. If the import fails after the existing blockchain has been deleted,
+     * the node falls back to a full reset.
+     */
+    public static void importSnapshot(File file, long expectedBlockId) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        BlockchainProcessorImpl blockchainProcessor = BlockchainProcessorImpl.getInstance();
+        if (expectedBlockId == 0) {
+            throw new IllegalArgumentException("The id of the block the snapshot was taken at is required");
+        }
+        verifyChecksum(file);
+        int height;
+        long blockId;
+        try (DataInputStream in = new DataInputStream(openSnapshot(file))) {
+            in.readUTF();
+            in.readInt();
+            height = in.readInt();
+            blockId = in.readLong();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        if (blockId != expectedBlockId) {
+            throw new IllegalArgumentException("Snapshot was taken at block " + Convert.toUnsignedLong(blockId)
+                    + " not at the expected block " + Convert.toUnsignedLong(expectedBlockId));
+        }
+        synchronized (blockchain) {
+            long start = System.currentTimeMillis();
+            Logger.logMessage("Importing snapshot at height " + height + " block " + Convert.toUnsignedLong(blockId));
+            blockchainProcessor.setGetMoreBlocks(false);
+            boolean deleted = false;
+            try {
+                TransactionProcessorImpl.getInstance().clearUnconfirmedTransactions();
+                Map<String,DerivedDbTable> derivedTables = new HashMap<>();
+                for (DerivedDbTable table : blockchainProcessor.getDerivedTables()) {
+                    derivedTables.put(table.getTable(), table);
+                }
+                try (Connection con = Db.db.beginTransaction();
+                     Statement stmt = con.createStatement();
+                     DataInputStream in = new DataInputStream(openSnapshot(file))) {
+                    in.readUTF();
+                    in.readInt();
+                    in.readInt();
+                    in.readLong();
+                    deleted = true;
+                    stmt.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
+                    // restored however the import ends, so that a failed import cannot leave the checks off
+                    try {
+                        stmt.executeUpdate("TRUNCATE TABLE transaction");
+                        stmt.executeUpdate("TRUNCATE TABLE block");
+                        // public_key is deleted together with the blocks, its table does not truncate itself
+                        stmt.executeUpdate("TRUNCATE TABLE public_key");
+                        for (DerivedDbTable table : derivedTables.values()) {
+                            table.truncate();
+                        }
+                        while (in.readBoolean()) {
+                            String table = in.readUTF();
+                            if (!table.equals("block") && !table.equals("transaction") && !derivedTables.containsKey(table)) {
+                                throw new RuntimeException("Snapshot contains unknown table " + table);
+                            }
+                            importTable(con, in, table);
+                        }
+                        // the next block of the last one is not part of the snapshot
+                        stmt.executeUpdate("UPDATE block SET next_block_id = NULL WHERE height = " + height);
+                    } finally {
+                        stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
+                    }
+                    BlockImpl lastBlock = BlockDb.findLastBlock();
+                    if (lastBlock.getId() != blockId || lastBlock.getHeight() != height) {
+                        throw new RuntimeException("Last imported block " + lastBlock.getStringId() + " at height " + lastBlock.getHeight()
+                                + " does not match the snapshot block " + Convert.toUnsignedLong(blockId) + " at height " + height);
+                    }
+                    // the id column is imported as is, the id must also be that of the imported content of the block
+                    long computedBlockId = computeBlockId(lastBlock);
+                    if (computedBlockId != expectedBlockId) {
+                        throw new RuntimeException("Last imported block hashes to id " + Convert.toUnsignedLong(computedBlockId)
+                                + " not to the expected block " + Convert.toUnsignedLong(expectedBlockId));
+                    }
+                    stmt.executeUpdate("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE");
+                    Db.db.commitTransaction();
+                    BlockDb.loadBlockCache(height - Constants.MAX_ROLLBACK);
+                    TransactionDb.clearTransactionIds();
+                    blockchain.setLastBlock(lastBlock);
+                    org.h2.fulltext.FullTextLucene.reindex(con);
+                } catch (Exception e) {
+                    Db.db.rollbackTransaction();
+                    throw e;
+                } finally {
+                    Db.db.endTransaction();
+                }
+            } catch (Exception e) {
+                if (deleted) {
+                    // truncating the tables has already committed the deletion of the previous blockchain
+                    Logger.logErrorMessage("Snapshot import failed, resetting the blockchain", e);
+                    blockchainProcessor.fullReset();
+                }
+                throw new RuntimeException(e.toString(), e);
+            } finally {
+                blockchainProcessor.setGetMoreBlocks(true);
+            }
+            Logger.logMessage("Imported snapshot at height " + height + " in " + (System.currentTimeMillis() - start) / 1000 + " s");
+        }
+    }
+
+    private static void importTable(Connection con, DataInputStream in, String table) throws IOException, SQLException {
+        int columnCount = in.readInt();
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columnCount; i++) {
+            sql.append(i > 0 ? ", " : "").append(in.readUTF());
+        }
+        sql.append(") VALUES (?");
+        for (int i = 1; i < columnCount; i++) {
+            sql.append(", ?");
+        }
+        sql.append(")");
+        int rows = 0;
+        try (PreparedStatement pstmt = con.prepareStatement(sql.toString())) {
+            while (in.readBoolean()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    pstmt.setObject(i, readValue(in));
+                }
+                pstmt.addBatch();
+                if (++rows % BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+        }
+        Logger.logDebugMessage("Imported " + rows + " rows of table " + table);
+    }
+
+    private static long computeBlockId(BlockImpl block) {
+        if (block.getGeneratorPublicKey() == null) {
+            throw new RuntimeException("Public key of the generator of block " + block.getStringId() + " is missing");
+        }
+        return Convert.fullHashToId(Crypto.sha256().digest(block.getBytes()));
+    }
+
+    private static void verifyChecksum(File file) {
+        MessageDigest digest = Crypto.sha256();
+        try (DigestInputStream digestIn = new DigestInputStream(openSnapshot(file), digest);
+             DataInputStream in = new DataInputStream(digestIn)) {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+                throw new RuntimeException("Not a snapshot file or unsupported version");
+            }
+            in.readInt();
+            in.readLong();
+            while (in.readBoolean()) {
+                in.readUTF();
+                int columnCount = in.readInt();
+                for (int i = 0; i < columnCount; i++) {
+                    in.readUTF();
+                }
+                while (in.readBoolean()) {
+                    for (int i = 0; i < columnCount; i++) {
+                        readValue(in);
+                    }
+                }
+            }
+            byte[] expected = digest.digest();
+            byte[] checksum = new byte[expected.length];
+            digestIn.on(false);
+            in.readFully(checksum);
+            if (!Arrays.equals(expected, checksum)) {
+                throw new RuntimeException("Snapshot checksum does not match its content");
+            }
+        } catch (EOFException e) {
+            throw new RuntimeException("Snapshot file is truncated", e);
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static InputStream openSnapshot(File file) throws IOException {
+        return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)), 65536);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Object[]) {
+            out.writeByte(ARRAY);
+            out.writeInt(((Object[]) value).length);
+            for (Object element : (Object[]) value) {
+                writeValue(out, element);
+            }
+        } else {
+            throw new RuntimeException("Unsupported column value type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case LONG:
+                return in.readLong();
+            case INT:
+                return in.readInt();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case BYTES:
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                return value;
+            case ARRAY:
+                Object[] array = new Object[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            default:
+                throw new IOException("Invalid value type " + type);
+        }
+    }
+
+    private Snapshot() {} // never
+
+}
@@ -82,6 +82,11 @@ public interface Transaction {
 
     JSONObject getJSONObject();
 
+    /**
+     * Returns the JSON text of getJSONObject(), which for a signed transaction is only serialized once
+     */
+    String getJSONString();
+
     byte getVersion();
 
     Appendix.Message getMessage();
@@ -2,6 +2,7 @@ package nxt;
 
 import nxt.db.DbUtils;
 import nxt.util.Convert;
+import nxt.util.LongBloomFilter;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -11,10 +12,47 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 final class TransactionDb {
 
+    // the ids of all saved transactions, so that looking up a transaction not in the database, the common case for the
+    // transactions received from peers, does not need a query, loaded on first use
+    private static LongBloomFilter transactionIds;
+
+    private static synchronized LongBloomFilter getTransactionIds() {
+        if (transactionIds == null) {
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmtCount = con.prepareStatement("SELECT COUNT(*) FROM transaction");
+                 PreparedStatement pstmt = con.prepareStatement("SELECT id FROM transaction")) {
+                int count;
+                try (ResultSet rs = pstmtCount.executeQuery()) {
+                    rs.next();
+                    count = rs.getInt(1);
+                }
+                LongBloomFilter filter = new LongBloomFilter(count * 2);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        filter.add(rs.getLong("id"));
+                    }
+                }
+                transactionIds = filter;
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+        return transactionIds;
+    }
+
+    /**
+     * Must be called after transactions are deleted or added other than by saveTransactions
+     */
+    static synchronized void clearTransactionIds() {
+        transactionIds = null;
+    }
+
     static Transaction findTransaction(long transactionId) {
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM transaction WHERE id = ?")) {
@@ -50,6 +88,9 @@ final class TransactionDb {
     }
 
     static boolean hasTransaction(long transactionId) {
+        if (!getTransactionIds().mightContain(transactionId)) {
+            return false;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM transaction WHERE id = ?")) {
             pstmt.setLong(1, transactionId);
@@ -62,9 +103,13 @@ final class TransactionDb {
     }
 
     static boolean hasTransactionByFullHash(String fullHash) {
+        byte[] hash = Convert.parseHexString(fullHash);
+        if (hash != null && hash.length >= 8 && !getTransactionIds().mightContain(Convert.fullHashToId(hash))) {
+            return false;
+        }
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM transaction WHERE full_hash = ?")) {
-            pstmt.setBytes(1, Convert.parseHexString(fullHash));
+            pstmt.setBytes(1, hash);
             try (ResultSet rs = pstmt.executeQuery()) {
                 return rs.next();
             }
@@ -162,10 +207,129 @@ final class TransactionDb {
         }
     }
 
+    /**
+     * Returns the transactions of all blocks in the range of heights by block id, in one query. Blocks without
+     * transactions are included with an empty list.
+     */
+    static Map<Long,List<TransactionImpl>> findBlockTransactions(int fromHeight, int toHeight) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT block.id AS block_row_id, transaction.* FROM block "
+                     + "LEFT JOIN transaction ON transaction.block_id = block.id WHERE block.height >= ? AND block.height <= ? "
+                     + "ORDER BY block.height, transaction.transaction_index")) {
+            pstmt.setInt(1, fromHeight);
+            pstmt.setInt(2, toHeight);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Map<Long,List<TransactionImpl>> result = new HashMap<>();
+                while (rs.next()) {
+                    long blockId = rs.getLong("block_row_id");
+                    List<TransactionImpl> list = result.get(blockId);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        result.put(blockId, list);
+                    }
+                    rs.getLong("db_id");
+                    if (!rs.wasNull()) {
+                        list.add(loadTransaction(con, rs));
+                    }
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } catch (NxtException.ValidationException e) {
+            throw new RuntimeException("Transaction already in database between heights " + fromHeight + " and " + toHeight
+                    + " does not pass validation!", e);
+        }
+    }
+
+    /**
+     * Returns the transactions of the given blocks by block id, in one query. Blocks without transactions are included
+     * with an empty list.
+     */
+    static Map<Long,List<TransactionImpl>> findBlockTransactions(List<Long> blockIds) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM transaction WHERE block_id IN (");
+        for (int i = 0; i < blockIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY height, transaction_index");
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement(sql.toString())) {
+            Map<Long,List<TransactionImpl>> result = new HashMap<>();
+            int i = 0;
+            for (Long blockId : blockIds) {
+                pstmt.setLong(++i, blockId);
+                result.put(blockId, new ArrayList<TransactionImpl>());
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    result.get(rs.getLong("block_id")).add(loadTransaction(con, rs));
+                }
+                return result;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } catch (NxtException.ValidationException e) {
+            throw new RuntimeException("Transaction already in database for one of " + blockIds.size()
+                    + " blocks does not pass validation!", e);
+        }
+    }
+
+    /**
+     * Transactions of the blocks in a range of heights, or of the blocks added to it, loaded by a single query when the
+     * transactions of one of those blocks are first needed, so that reading several blocks with their transactions does
+     * not take a query per block
+     */
+    static final class BlockTransactions {
+
+        private final int fromHeight;
+        private final int toHeight;
+        private final List<Long> blockIds;
+        private Map<Long,List<TransactionImpl>> blockTransactions;
+
+        BlockTransactions(int fromHeight, int toHeight) {
+            this.fromHeight = fromHeight;
+            this.toHeight = toHeight;
+            this.blockIds = null;
+        }
+
+        /**
+         * For blocks which are not a range of heights, each block is added as it is read
+         */
+        BlockTransactions() {
+            this.fromHeight = 0;
+            this.toHeight = 0;
+            this.blockIds = new ArrayList<>();
+            this.blockTransactions = new HashMap<>();
+        }
+
+        synchronized void add(long blockId) {
+            blockIds.add(blockId);
+        }
+
+        synchronized List<TransactionImpl> get(long blockId) {
+            if (blockIds == null) {
+                if (blockTransactions == null) {
+                    blockTransactions = findBlockTransactions(fromHeight, toHeight);
+                }
+            } else if (!blockIds.isEmpty()) {
+                // the blocks added since the previous query are loaded together
+                blockTransactions.putAll(findBlockTransactions(blockIds));
+                blockIds.clear();
+            }
+            List<TransactionImpl> transactions = blockTransactions.remove(blockId);
+            // the blockchain may have changed since the block was read
+            return transactions != null ? transactions : findBlockTransactions(blockId);
+        }
+
+    }
+
     static void saveTransactions(Connection con, List<TransactionImpl> transactions) {
         try {
             short index = 0;
+            LongBloomFilter transactionIds = getTransactionIds();
             for (TransactionImpl transaction : transactions) {
+                // added before the insert, a transaction rolled back later only becomes a false positive
+                transactionIds.add(transaction.getId());
                 try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO transaction (id, deadline, "
                         + "recipient_id, amount, fee, referenced_transaction_full_hash, height, "
                         + "block_id, signature, timestamp, type, subtype, sender_id, attachment_bytes, "
@@ -1,11 +1,11 @@
 package nxt;
 
 import nxt.crypto.Crypto;
-import nxt.db.DbKey;
 import nxt.util.Convert;
 import nxt.util.Logger;
 import org.json.simple.JSONObject;
 
+import java.lang.ref.SoftReference;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -213,7 +213,14 @@ final class TransactionImpl implements Transaction {
     private volatile String stringId;
     private volatile long senderId;
     private volatile String fullHash;
-    private volatile DbKey dbKey;
+    // set by preVerifySignature, for the byte format in use at the time of the check
+    private volatile boolean hasVerifiedSignature;
+    private volatile boolean verifiedSignatureNQT;
+    // computed once the transaction is signed, for each of the two byte formats, the JSON text is dropped first if
+    // memory runs low
+    private volatile byte[] bytes;
+    private volatile byte[] legacyBytes;
+    private volatile SoftReference<String> jsonString;
 
     private TransactionImpl(BuilderImpl builder) throws NxtException.NotValidException {
 
@@ -438,7 +445,7 @@ final class TransactionImpl implements Transaction {
                 digest.update(data);
                 hash = digest.digest(signatureHash);
             } else {
-                hash = Crypto.sha256().digest(getBytes());
+                hash = Crypto.sha256().digest(bytes());
             }
             BigInteger bigInteger = new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
             id = bigInteger.longValue();
@@ -475,13 +482,6 @@ final class TransactionImpl implements Transaction {
         return senderId;
     }
 
-    DbKey getDbKey() {
-        if (dbKey == null) {
-            dbKey = TransactionProcessorImpl.getInstance().unconfirmedTransactionDbKeyFactory.newKey(getId());
-        }
-        return dbKey;
-    }
-
     @Override
     public Appendix.Message getMessage() {
         return message;
@@ -503,8 +503,37 @@ final class TransactionImpl implements Transaction {
 
     @Override
     public byte[] getBytes() {
+        return bytes().clone();
+    }
+
+    // the returned array is shared and must not be modified
+    private byte[] bytes() {
+        boolean useNQT = useNQT();
+        byte[] bytes = useNQT ? this.bytes : this.legacyBytes;
+        if (bytes == null) {
+            bytes = buildBytes(useNQT);
+            if (signature != null) {
+                if (useNQT) {
+                    this.bytes = bytes;
+                } else {
+                    this.legacyBytes = bytes;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes in the NQT format, as read back by parseTransaction(byte[]), also for transactions which were
+     * signed in the legacy format
+     */
+    byte[] getNQTBytes() {
+        return useNQT() ? bytes().clone() : buildBytes(true);
+    }
+
+    private byte[] buildBytes(boolean useNQT) {
         try {
-            ByteBuffer buffer = ByteBuffer.allocate(getSize());
+            ByteBuffer buffer = ByteBuffer.allocate(getSize(useNQT));
             buffer.order(ByteOrder.LITTLE_ENDIAN);
             buffer.put(type.getType());
             buffer.put((byte) ((version << 4) | type.getSubtype()));
@@ -512,7 +541,7 @@ final class TransactionImpl implements Transaction {
             buffer.putShort(deadline);
             buffer.put(getSenderPublicKey());
             buffer.putLong(type.canHaveRecipient() ? recipientId : Genesis.CREATOR_ID);
-            if (useNQT()) {
+            if (useNQT) {
                 buffer.putLong(amountNQT);
                 buffer.putLong(feeNQT);
                 if (referencedTransactionFullHash != null) {
@@ -658,6 +687,19 @@ final class TransactionImpl implements Transaction {
         return json;
     }
 
+    @Override
+    public String getJSONString() {
+        SoftReference<String> jsonStringReference = this.jsonString;
+        String jsonString = jsonStringReference != null ? jsonStringReference.get() : null;
+        if (jsonString == null) {
+            jsonString = getJSONObject().toJSONString();
+            if (signature != null) {
+                this.jsonString = new SoftReference<>(jsonString);
+            }
+        }
+        return jsonString;
+    }
+
     static TransactionImpl parseTransaction(JSONObject transactionData) throws NxtException.NotValidException {
         try {
             byte type = ((Long) transactionData.get("type")).byteValue();
@@ -745,16 +787,51 @@ final class TransactionImpl implements Transaction {
         if (signature == null) {
             return false;
         }
+        boolean useNQT = useNQT();
+        if (!hasVerifiedSignature || verifiedSignatureNQT != useNQT) {
+            byte[] data = zeroSignature(getBytes());
+            if (!Crypto.verify(signature, data, getSenderPublicKey(), useNQT)) {
+                return false;
+            }
+        }
+        return account.setOrVerify(getSenderPublicKey());
+    }
+
+    /**
+     * Checks the signature without looking up the sender account, so that it can be done by any thread ahead of
+     * block processing. A valid signature is remembered and not checked again by verifySignature.
+     */
+    void preVerifySignature() {
+        if (signature == null || hasVerifiedSignature) {
+            return;
+        }
+        boolean useNQT = useNQT();
         byte[] data = zeroSignature(getBytes());
-        return Crypto.verify(signature, data, getSenderPublicKey(), useNQT()) && account.setOrVerify(getSenderPublicKey());
+        if (Crypto.verify(signature, data, getSenderPublicKey(), useNQT)) {
+            verifiedSignatureNQT = useNQT;
+            hasVerifiedSignature = true;
+        }
+    }
+
+    void trustSignature() {
+        verifiedSignatureNQT = useNQT();
+        hasVerifiedSignature = true;
     }
 
     int getSize() {
-        return signatureOffset() + 64  + (version > 0 ? 4 + 4 + 8 : 0) + appendagesSize;
+        return getSize(useNQT());
+    }
+
+    private int getSize(boolean useNQT) {
+        return signatureOffset(useNQT) + 64  + (version > 0 ? 4 + 4 + 8 : 0) + appendagesSize;
     }
 
     private int signatureOffset() {
-        return 1 + 1 + 4 + 2 + 32 + 8 + (useNQT() ? 8 + 8 + 32 : 4 + 4 + 8);
+        return signatureOffset(useNQT());
+    }
+
+    private static int signatureOffset(boolean useNQT) {
+        return 1 + 1 + 4 + 2 + 32 + 8 + (useNQT ? 8 + 8 + 32 : 4 + 4 + 8);
     }
 
     private boolean useNQT() {
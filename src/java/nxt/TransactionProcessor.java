@@ -1,6 +1,5 @@
 package nxt;
 
-import nxt.db.DbIterator;
 import nxt.util.Observable;
 import org.json.simple.JSONObject;
 
@@ -14,7 +13,9 @@ public interface TransactionProcessor extends Observable<List<? extends Transact
         ADDED_CONFIRMED_TRANSACTIONS
     }
 
-    DbIterator<? extends Transaction> getAllUnconfirmedTransactions();
+    List<? extends Transaction> getAllUnconfirmedTransactions();
+
+    List<? extends Transaction> getUnconfirmedTransactions(long accountId);
 
     Transaction getUnconfirmedTransaction(long transactionId);
 
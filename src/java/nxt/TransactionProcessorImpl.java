@@ -1,9 +1,5 @@
 package nxt;
 
-import nxt.db.DbClause;
-import nxt.db.DbIterator;
-import nxt.db.DbKey;
-import nxt.db.EntityDbTable;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -16,10 +12,20 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,51 +48,8 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         return instance;
     }
 
-    final DbKey.LongKeyFactory<UnconfirmedTransaction> unconfirmedTransactionDbKeyFactory = new DbKey.LongKeyFactory<UnconfirmedTransaction>("id") {
-
-        @Override
-        public DbKey newKey(UnconfirmedTransaction unconfirmedTransaction) {
-            return unconfirmedTransaction.getTransaction().getDbKey();
-        }
-
-    };
-
-    private final EntityDbTable<UnconfirmedTransaction> unconfirmedTransactionTable =
-            new EntityDbTable<UnconfirmedTransaction>("unconfirmed_transaction", unconfirmedTransactionDbKeyFactory) {
-
-        @Override
-        protected UnconfirmedTransaction load(Connection con, ResultSet rs) throws SQLException {
-            return new UnconfirmedTransaction(rs);
-        }
-
-        @Override
-        protected void save(Connection con, UnconfirmedTransaction unconfirmedTransaction) throws SQLException {
-            unconfirmedTransaction.save(con);
-        }
-
-        @Override
-        public void rollback(int height) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM unconfirmed_transaction WHERE height > ?")) {
-                pstmt.setInt(1, height);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    while (rs.next()) {
-                        lostTransactions.add(load(con, rs));
-                    }
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }
-            super.rollback(height);
-            unconfirmedDuplicates.clear();
-        }
-
-        @Override
-        protected String defaultSort() {
-            return " ORDER BY transaction_height ASC, fee_per_byte DESC, arrival_timestamp ASC, id ASC ";
-        }
-
-    };
+    private final UnconfirmedTransactionPool unconfirmedTransactionPool = new UnconfirmedTransactionPool(Db.db);
+    private final String unconfirmedTransactionsFile = Convert.emptyToNull(Nxt.getStringProperty("nxt.unconfirmedTransactionsFile"));
 
     private final Set<TransactionImpl> broadcastedTransactions = Collections.newSetFromMap(new ConcurrentHashMap<TransactionImpl,Boolean>());
     private final Listeners<List<? extends Transaction>,Event> transactionListeners = new Listeners<>();
@@ -96,25 +59,12 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
     private final Runnable removeUnconfirmedTransactionsThread = new Runnable() {
 
-        private final DbClause expiredClause = new DbClause(" expiration < ? ") {
-            @Override
-            protected int set(PreparedStatement pstmt, int index) throws SQLException {
-                pstmt.setInt(index, Nxt.getEpochTime());
-                return index + 1;
-            }
-        };
-
         @Override
         public void run() {
 
             try {
                 try {
-                    List<UnconfirmedTransaction> expiredTransactions = new ArrayList<>();
-                    try (DbIterator<UnconfirmedTransaction> iterator = unconfirmedTransactionTable.getManyBy(expiredClause, 0, -1, "")) {
-                        while (iterator.hasNext()) {
-                            expiredTransactions.add(iterator.next());
-                        }
-                    }
+                    List<UnconfirmedTransaction> expiredTransactions = unconfirmedTransactionPool.getExpired(Nxt.getEpochTime());
                     if (expiredTransactions.size() > 0) {
                         synchronized (BlockchainImpl.getInstance()) {
                             try {
@@ -225,22 +175,22 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     private TransactionProcessorImpl() {
         ThreadPool.scheduleThread("ProcessTransactions", processTransactionsThread, 5);
         ThreadPool.scheduleThread("RemoveUnconfirmedTransactions", removeUnconfirmedTransactionsThread, 1);
-        ThreadPool.runAfterStart(new Runnable() {
-            @Override
-            public void run() {
-                synchronized (BlockchainImpl.getInstance()) {
-                    try (DbIterator<UnconfirmedTransaction> oldNonBroadcastedTransactions = getAllUnconfirmedTransactions()) {
-                        for (UnconfirmedTransaction unconfirmedTransaction : oldNonBroadcastedTransactions) {
-                            if (unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates)) {
-                                Logger.logDebugMessage("Skipping duplicate unconfirmed transaction " + unconfirmedTransaction.getTransaction().getJSONObject().toString());
-                            } else if (enableTransactionRebroadcasting) {
+        if (unconfirmedTransactionsFile != null) {
+            ThreadPool.runAfterStart(new Runnable() {
+                @Override
+                public void run() {
+                    List<UnconfirmedTransaction> savedTransactions = loadUnconfirmedTransactions();
+                    synchronized (BlockchainImpl.getInstance()) {
+                        lostTransactions.addAll(savedTransactions);
+                        if (enableTransactionRebroadcasting) {
+                            for (UnconfirmedTransaction unconfirmedTransaction : savedTransactions) {
                                 broadcastedTransactions.add(unconfirmedTransaction.getTransaction());
                             }
                         }
                     }
                 }
-            }
-        });
+            });
+        }
         if (enableTransactionRebroadcasting) {
             ThreadPool.scheduleThread("RebroadcastTransactions", rebroadcastTransactionsThread, 60);
         }
@@ -261,13 +211,18 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     }
 
     @Override
-    public DbIterator<UnconfirmedTransaction> getAllUnconfirmedTransactions() {
-        return unconfirmedTransactionTable.getAll(0, -1);
+    public List<UnconfirmedTransaction> getAllUnconfirmedTransactions() {
+        return unconfirmedTransactionPool.getAll();
+    }
+
+    @Override
+    public List<UnconfirmedTransaction> getUnconfirmedTransactions(long accountId) {
+        return unconfirmedTransactionPool.getByAccount(accountId);
     }
 
     @Override
     public Transaction getUnconfirmedTransaction(long transactionId) {
-        return unconfirmedTransactionTable.get(unconfirmedTransactionDbKeyFactory.newKey(transactionId));
+        return unconfirmedTransactionPool.get(transactionId);
     }
 
     @Override
@@ -277,7 +232,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 Logger.logMessage("Transaction " + transaction.getStringId() + " already in blockchain, will not broadcast again");
                 return;
             }
-            if (unconfirmedTransactionTable.get(((TransactionImpl) transaction).getDbKey()) != null) {
+            if (unconfirmedTransactionPool.contains(transaction.getId())) {
                 if (enableTransactionRebroadcasting) {
                     broadcastedTransactions.add((TransactionImpl) transaction);
                     Logger.logMessage("Transaction " + transaction.getStringId() + " already in unconfirmed pool, will re-broadcast");
@@ -320,13 +275,11 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             List<Transaction> removed = new ArrayList<>();
             try {
                 Db.db.beginTransaction();
-                try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = getAllUnconfirmedTransactions()) {
-                    for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                        unconfirmedTransaction.getTransaction().undoUnconfirmed();
-                        removed.add(unconfirmedTransaction.getTransaction());
-                    }
+                for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.removeAll()) {
+                    unconfirmedTransaction.getTransaction().undoUnconfirmed();
+                    removed.add(unconfirmedTransaction.getTransaction());
                 }
-                unconfirmedTransactionTable.truncate();
+                saveUnconfirmedHeight(null);
                 Db.db.commitTransaction();
             } catch (Exception e) {
                 Logger.logErrorMessage(e.toString(), e);
@@ -342,18 +295,38 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
     void requeueAllUnconfirmedTransactions() {
         List<Transaction> removed = new ArrayList<>();
-        try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = getAllUnconfirmedTransactions()) {
-            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                unconfirmedTransaction.getTransaction().undoUnconfirmed();
-                removed.add(unconfirmedTransaction.getTransaction());
-                lostTransactions.add(unconfirmedTransaction);
-            }
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.removeAll()) {
+            unconfirmedTransaction.getTransaction().undoUnconfirmed();
+            removed.add(unconfirmedTransaction.getTransaction());
+            lostTransactions.add(unconfirmedTransaction);
         }
-        unconfirmedTransactionTable.truncate();
+        saveUnconfirmedHeight(null);
         unconfirmedDuplicates.clear();
         transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
     }
 
+    /**
+     * Reverts the effect of all unconfirmed transactions on the database only, without requeueing them or removing
+     * them from the pool, for use in a database transaction which will be rolled back
+     */
+    void undoAllUnconfirmedTransactions() {
+        for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+            unconfirmedTransaction.getTransaction().undoUnconfirmed();
+        }
+    }
+
+    /**
+     * Requeues the transactions added to the pool above the given height, as their effects on the accounts are
+     * rolled back together with the derived tables
+     */
+    void rollbackUnconfirmedTransactions(int height) {
+        lostTransactions.addAll(unconfirmedTransactionPool.removeAbove(height));
+        if (unconfirmedTransactionPool.size() == 0) {
+            saveUnconfirmedHeight(null);
+        }
+        unconfirmedDuplicates.clear();
+    }
+
     void removeUnconfirmedTransaction(TransactionImpl transaction) {
         if (!Db.db.isInTransaction()) {
             try {
@@ -369,20 +342,111 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             }
             return;
         }
+        if (unconfirmedTransactionPool.remove(transaction.getId()) != null) {
+            transaction.undoUnconfirmed();
+            if (unconfirmedTransactionPool.size() == 0) {
+                saveUnconfirmedHeight(null);
+            }
+            transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+        }
+    }
+
+    /**
+     * Saves the unconfirmed transactions to nxt.unconfirmedTransactionsFile, if set, to be processed again on start,
+     * then undoes their effects on the accounts, as the pool is only kept in memory
+     */
+    void shutdown() {
+        if (unconfirmedTransactionsFile != null) {
+            saveUnconfirmedTransactions();
+        }
+        synchronized (BlockchainImpl.getInstance()) {
+            if (unconfirmedTransactionPool.size() == 0) {
+                return;
+            }
+            try {
+                Db.db.beginTransaction();
+                for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.removeAll()) {
+                    unconfirmedTransaction.getTransaction().undoUnconfirmed();
+                }
+                saveUnconfirmedHeight(null);
+                Db.db.commitTransaction();
+            } catch (Exception e) {
+                Logger.logErrorMessage("Failed to undo the unconfirmed transactions, the derived tables will be scanned again on start", e);
+                Db.db.rollbackTransaction();
+            } finally {
+                Db.db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * The pool is only kept in memory, while the effects of its transactions are saved in the derived tables. The
+     * height at which the pool stopped being empty is kept in the scan table until it is empty again, so that the
+     * derived tables are scanned again from it on start if the node was stopped without undoing them.
+     */
+    private void saveUnconfirmedHeight(Integer height) {
         try (Connection con = Db.db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("DELETE FROM unconfirmed_transaction WHERE id = ?")) {
-            pstmt.setLong(1, transaction.getId());
-            int deleted = pstmt.executeUpdate();
-            if (deleted > 0) {
-                transaction.undoUnconfirmed();
-                transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+             PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET unconfirmed_height = ?")) {
+            if (height != null) {
+                pstmt.setInt(1, height);
+            } else {
+                pstmt.setNull(1, Types.INTEGER);
             }
+            pstmt.executeUpdate();
         } catch (SQLException e) {
-            Logger.logErrorMessage(e.toString(), e);
             throw new RuntimeException(e.toString(), e);
         }
     }
 
+    private void saveUnconfirmedTransactions() {
+        List<UnconfirmedTransaction> unconfirmedTransactions = unconfirmedTransactionPool.getAll();
+        File file = new File(unconfirmedTransactionsFile);
+        File tempFile = new File(unconfirmedTransactionsFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(unconfirmedTransactions.size());
+            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+                byte[] bytes = unconfirmedTransaction.getTransaction().getNQTBytes();
+                out.writeLong(unconfirmedTransaction.getArrivalTimestamp());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            Logger.logErrorMessage("Failed to save unconfirmed transactions to " + tempFile.getAbsolutePath(), e);
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Logger.logShutdownMessage("Saved " + unconfirmedTransactions.size() + " unconfirmed transactions to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            Logger.logErrorMessage("Failed to save unconfirmed transactions to " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private List<UnconfirmedTransaction> loadUnconfirmedTransactions() {
+        File file = new File(unconfirmedTransactionsFile);
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        List<UnconfirmedTransaction> unconfirmedTransactions = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long arrivalTimestamp = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try {
+                    unconfirmedTransactions.add(new UnconfirmedTransaction(TransactionImpl.parseTransaction(bytes), arrivalTimestamp));
+                } catch (NxtException.ValidationException|RuntimeException e) {
+                    Logger.logDebugMessage("Skipping invalid saved unconfirmed transaction", e);
+                }
+            }
+        } catch (IOException e) {
+            Logger.logErrorMessage("Failed to load unconfirmed transactions from " + file.getAbsolutePath(), e);
+        }
+        Logger.logMessage("Loaded " + unconfirmedTransactions.size() + " unconfirmed transactions from " + file.getAbsolutePath());
+        return unconfirmedTransactions;
+    }
+
     int getTransactionVersion(int previousBlockHeight) {
         return previousBlockHeight < Constants.DIGITAL_GOODS_STORE_BLOCK ? 0 : 1;
     }
@@ -404,6 +468,11 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 Iterator<UnconfirmedTransaction> iterator = lostTransactions.iterator();
                 while (iterator.hasNext()) {
                     UnconfirmedTransaction unconfirmedTransaction = iterator.next();
+                    // left over by a block which failed to be pushed, after which the pool was restored
+                    if (unconfirmedTransactionPool.contains(unconfirmedTransaction.getId())) {
+                        iterator.remove();
+                        continue;
+                    }
                     try {
                         processTransaction(unconfirmedTransaction);
                         iterator.remove();
@@ -442,7 +511,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             try {
                 TransactionImpl transaction = parseTransaction((JSONObject) transactionData);
                 receivedTransactions.add(transaction);
-                if (TransactionDb.hasTransaction(transaction.getId()) || unconfirmedTransactionTable.get(transaction.getDbKey()) != null) {
+                if (TransactionDb.hasTransaction(transaction.getId()) || unconfirmedTransactionPool.contains(transaction.getId())) {
                     continue;
                 }
                 transaction.validate();
@@ -493,7 +562,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     throw new NxtException.NotCurrentlyValidException("Blockchain not ready to accept transactions");
                 }
 
-                if (TransactionDb.hasTransaction(transaction.getId()) || unconfirmedTransactionTable.get(transaction.getDbKey()) != null) {
+                if (TransactionDb.hasTransaction(transaction.getId()) || unconfirmedTransactionPool.contains(transaction.getId())) {
                     throw new NxtException.NotCurrentlyValidException("Transaction already processed");
                 }
 
@@ -513,7 +582,10 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     throw new NxtException.NotCurrentlyValidException("Duplicate unconfirmed transaction");
                 }
 
-                unconfirmedTransactionTable.insert(unconfirmedTransaction);
+                unconfirmedTransactionPool.add(unconfirmedTransaction, Nxt.getBlockchain().getHeight());
+                if (unconfirmedTransactionPool.size() == 1) {
+                    saveUnconfirmedHeight(Nxt.getBlockchain().getHeight());
+                }
 
                 Db.db.commitTransaction();
             } catch (Exception e) {
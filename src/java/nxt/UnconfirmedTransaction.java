@@ -2,10 +2,6 @@ package nxt;
 
 import org.json.simple.JSONObject;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.List;
 
 public class UnconfirmedTransaction implements Transaction {
@@ -18,33 +14,6 @@ public class UnconfirmedTransaction implements Transaction {
         this.arrivalTimestamp = arrivalTimestamp;
     }
 
-    UnconfirmedTransaction(ResultSet rs) throws SQLException {
-        byte[] transactionBytes = rs.getBytes("transaction_bytes");
-        try {
-            this.transaction = TransactionImpl.parseTransaction(transactionBytes);
-            this.transaction.setHeight(rs.getInt("transaction_height"));
-            this.arrivalTimestamp = rs.getLong("arrival_timestamp");
-        } catch (NxtException.ValidationException e) {
-            throw new RuntimeException(e.toString(), e);
-        }
-    }
-
-    void save(Connection con) throws SQLException {
-        try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO unconfirmed_transaction (id, transaction_height, "
-                + "fee_per_byte, expiration, transaction_bytes, arrival_timestamp, height) "
-                + "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
-            int i = 0;
-            pstmt.setLong(++i, transaction.getId());
-            pstmt.setInt(++i, transaction.getHeight());
-            pstmt.setLong(++i, transaction.getFeeNQT() / transaction.getSize());
-            pstmt.setInt(++i, transaction.getExpiration());
-            pstmt.setBytes(++i, transaction.getBytes());
-            pstmt.setLong(++i, arrivalTimestamp);
-            pstmt.setInt(++i, Nxt.getBlockchain().getHeight());
-            pstmt.executeUpdate();
-        }
-    }
-
     TransactionImpl getTransaction() {
         return transaction;
     }
@@ -53,6 +22,10 @@ public class UnconfirmedTransaction implements Transaction {
         return arrivalTimestamp;
     }
 
+    long getFeePerByte() {
+        return transaction.getFeeNQT() / transaction.getSize();
+    }
+
     @Override
     public boolean equals(Object o) {
         return o instanceof UnconfirmedTransaction && transaction.equals(((UnconfirmedTransaction)o).getTransaction());
@@ -188,6 +161,11 @@ public class UnconfirmedTransaction implements Transaction {
         return transaction.getJSONObject();
     }
 
+    @Override
+    public String getJSONString() {
+        return transaction.getJSONString();
+    }
+
     @Override
     public byte getVersion() {
         return transaction.getVersion();
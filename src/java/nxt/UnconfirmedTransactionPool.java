@@ -0,0 +1,337 @@
+package nxt;
+
+import nxt.db.TransactionalDb;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The unconfirmed transactions, indexed by id, by sender, by recipient, by expiration, and in the order in which they
+ * are offered for inclusion in a block: by transaction height, fee per byte descending, arrival and id. Guarded by its
+ * own lock, the blockchain lock is not needed to read it.
+ * <p>
+ * Changes made inside a database transaction are undone if the transaction is rolled back, as the effects of the
+ * unconfirmed transactions on the accounts are. The sort keys are taken when a transaction is added, as the height
+ * of a transaction changes once it is included in a block.
+ */
+final class UnconfirmedTransactionPool implements TransactionalDb.TransactionCallback {
+
+    private static final class Entry {
+
+        private final UnconfirmedTransaction unconfirmedTransaction;
+        private final long id;
+        private final int height;
+        private final int transactionHeight;
+        private final long feePerByte;
+        private final int expiration;
+
+        private Entry(UnconfirmedTransaction unconfirmedTransaction, int height) {
+            this.unconfirmedTransaction = unconfirmedTransaction;
+            this.id = unconfirmedTransaction.getId();
+            this.height = height;
+            this.transactionHeight = unconfirmedTransaction.getHeight();
+            this.feePerByte = unconfirmedTransaction.getFeePerByte();
+            this.expiration = unconfirmedTransaction.getExpiration();
+        }
+
+    }
+
+    private static final class Change {
+
+        private final Entry entry;
+        private final boolean added;
+
+        private Change(Entry entry, boolean added) {
+            this.entry = entry;
+            this.added = added;
+        }
+
+    }
+
+    private static final Comparator<Entry> priorityComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int result;
+            if ((result = Integer.compare(e1.transactionHeight, e2.transactionHeight)) != 0) {
+                return result;
+            }
+            if ((result = Long.compare(e2.feePerByte, e1.feePerByte)) != 0) {
+                return result;
+            }
+            if ((result = Long.compare(e1.unconfirmedTransaction.getArrivalTimestamp(), e2.unconfirmedTransaction.getArrivalTimestamp())) != 0) {
+                return result;
+            }
+            return Long.compare(e1.id, e2.id);
+        }
+    };
+
+    private static final Comparator<Entry> expirationComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int result;
+            if ((result = Integer.compare(e1.expiration, e2.expiration)) != 0) {
+                return result;
+            }
+            return Long.compare(e1.id, e2.id);
+        }
+    };
+
+    private final TransactionalDb db;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long,Entry> byId = new HashMap<>();
+    private final Map<Long,Set<Entry>> bySender = new HashMap<>();
+    private final Map<Long,Set<Entry>> byRecipient = new HashMap<>();
+    private final NavigableSet<Entry> byExpiration = new TreeSet<>(expirationComparator);
+    private final NavigableSet<Entry> byPriority = new TreeSet<>(priorityComparator);
+
+    // the entries added and removed in the current database transaction, latest first
+    private final ThreadLocal<Deque<Change>> changes = new ThreadLocal<>();
+
+    UnconfirmedTransactionPool(TransactionalDb db) {
+        this.db = db;
+    }
+
+    /**
+     * Adds the transaction at the given blockchain height, returns false if it is already in the pool
+     */
+    boolean add(UnconfirmedTransaction unconfirmedTransaction, int height) {
+        Entry entry = new Entry(unconfirmedTransaction, height);
+        lock.writeLock().lock();
+        try {
+            if (byId.containsKey(entry.id)) {
+                return false;
+            }
+            addEntry(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logChange(entry, true);
+        return true;
+    }
+
+    UnconfirmedTransaction remove(long id) {
+        Entry entry;
+        lock.writeLock().lock();
+        try {
+            entry = byId.get(id);
+            if (entry == null) {
+                return null;
+            }
+            removeEntry(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logChange(entry, false);
+        return entry.unconfirmedTransaction;
+    }
+
+    /**
+     * Removes the transactions added above the given height, all of them if height is negative
+     */
+    List<UnconfirmedTransaction> removeAbove(int height) {
+        List<Entry> removed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (Entry entry : byPriority) {
+                if (entry.height > height) {
+                    removed.add(entry);
+                }
+            }
+            for (Entry entry : removed) {
+                removeEntry(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<UnconfirmedTransaction> result = new ArrayList<>(removed.size());
+        for (Entry entry : removed) {
+            logChange(entry, false);
+            result.add(entry.unconfirmedTransaction);
+        }
+        return result;
+    }
+
+    List<UnconfirmedTransaction> removeAll() {
+        return removeAbove(-1);
+    }
+
+    UnconfirmedTransaction get(long id) {
+        lock.readLock().lock();
+        try {
+            Entry entry = byId.get(id);
+            return entry != null ? entry.unconfirmedTransaction : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return byId.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all the transactions in the order in which they are offered for inclusion in a block
+     */
+    List<UnconfirmedTransaction> getAll() {
+        lock.readLock().lock();
+        try {
+            List<UnconfirmedTransaction> result = new ArrayList<>(byPriority.size());
+            for (Entry entry : byPriority) {
+                result.add(entry.unconfirmedTransaction);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the transactions sent or received by the account, in the order of getAll
+     */
+    List<UnconfirmedTransaction> getByAccount(long accountId) {
+        lock.readLock().lock();
+        try {
+            Set<Entry> sent = bySender.get(accountId);
+            Set<Entry> received = byRecipient.get(accountId);
+            if (sent == null && received == null) {
+                return Collections.emptyList();
+            }
+            NavigableSet<Entry> entries = new TreeSet<>(priorityComparator);
+            if (sent != null) {
+                entries.addAll(sent);
+            }
+            if (received != null) {
+                entries.addAll(received);
+            }
+            List<UnconfirmedTransaction> result = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                result.add(entry.unconfirmedTransaction);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the transactions which expire before the given epoch time
+     */
+    List<UnconfirmedTransaction> getExpired(int time) {
+        lock.readLock().lock();
+        try {
+            List<UnconfirmedTransaction> result = new ArrayList<>();
+            for (Entry entry : byExpiration) {
+                if (entry.expiration >= time) {
+                    break;
+                }
+                result.add(entry.unconfirmedTransaction);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void commit() {
+        changes.remove();
+    }
+
+    @Override
+    public void rollback() {
+        Deque<Change> log = changes.get();
+        changes.remove();
+        if (log == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (Change change : log) {
+                if (change.added) {
+                    if (byId.get(change.entry.id) == change.entry) {
+                        removeEntry(change.entry);
+                    }
+                } else if (!byId.containsKey(change.entry.id)) {
+                    addEntry(change.entry);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void logChange(Entry entry, boolean added) {
+        if (!db.isInTransaction()) {
+            return;
+        }
+        Deque<Change> log = changes.get();
+        if (log == null) {
+            log = new ArrayDeque<>();
+            changes.set(log);
+            db.registerCallback(this);
+        }
+        log.addFirst(new Change(entry, added));
+    }
+
+    private void addEntry(Entry entry) {
+        byId.put(entry.id, entry);
+        index(bySender, entry.unconfirmedTransaction.getSenderId(), entry);
+        index(byRecipient, entry.unconfirmedTransaction.getRecipientId(), entry);
+        byExpiration.add(entry);
+        byPriority.add(entry);
+    }
+
+    private void removeEntry(Entry entry) {
+        byId.remove(entry.id);
+        unindex(bySender, entry.unconfirmedTransaction.getSenderId(), entry);
+        unindex(byRecipient, entry.unconfirmedTransaction.getRecipientId(), entry);
+        byExpiration.remove(entry);
+        byPriority.remove(entry);
+    }
+
+    private static void index(Map<Long,Set<Entry>> map, long accountId, Entry entry) {
+        Set<Entry> entries = map.get(accountId);
+        if (entries == null) {
+            entries = new LinkedHashSet<>();
+            map.put(accountId, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static void unindex(Map<Long,Set<Entry>> map, long accountId, Entry entry) {
+        Set<Entry> entries = map.get(accountId);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                map.remove(accountId);
+            }
+        }
+    }
+
+}
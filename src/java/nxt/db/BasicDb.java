@@ -16,6 +16,7 @@ public class BasicDb {
         private int maxConnections;
         private int loginTimeout;
         private int defaultLockTimeout;
+        private int statementCacheSize;
 
         public DbProperties maxCacheSize(int maxCacheSize) {
             this.maxCacheSize = maxCacheSize;
@@ -42,6 +43,11 @@ public class BasicDb {
             return this;
         }
 
+        public DbProperties statementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
     }
 
     private JdbcConnectionPool cp;
@@ -50,6 +56,7 @@ public class BasicDb {
     private final int maxConnections;
     private final int loginTimeout;
     private final int defaultLockTimeout;
+    private final int statementCacheSize;
 
     public BasicDb(DbProperties dbProperties) {
         long maxCacheSize = dbProperties.maxCacheSize;
@@ -64,6 +71,7 @@ public class BasicDb {
         this.maxConnections = dbProperties.maxConnections;
         this.loginTimeout = dbProperties.loginTimeout;
         this.defaultLockTimeout = dbProperties.defaultLockTimeout;
+        this.statementCacheSize = dbProperties.statementCacheSize;
     }
 
     public void init(String username, String password, DbVersion dbVersion) {
@@ -106,6 +114,10 @@ public class BasicDb {
         return con;
     }
 
+    int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
     protected Connection getPooledConnection() throws SQLException {
         Connection con = cp.getConnection();
         int activeConnections = cp.getActiveConnections();
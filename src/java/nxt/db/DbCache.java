@@ -0,0 +1,221 @@
+package nxt.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of the entities of one table read or modified in the current database transaction. Tables keyed by one or two
+ * long columns use open addressing maps of primitive keys, looked up directly from the key columns of a result set,
+ * so that no key object is created for a row whose entity is already cached.
+ */
+abstract class DbCache<V> {
+
+    abstract V get(DbKey dbKey);
+
+    /**
+     * Returns the entity cached for the key of the current row, or null
+     */
+    abstract V get(ResultSet rs) throws SQLException;
+
+    abstract void put(DbKey dbKey, V value);
+
+    abstract void remove(DbKey dbKey);
+
+    abstract void clear();
+
+    static final class MapCache<V> extends DbCache<V> {
+
+        private final DbKey.Factory<?> dbKeyFactory;
+        private final Map<DbKey,V> map = new HashMap<>();
+
+        MapCache(DbKey.Factory<?> dbKeyFactory) {
+            this.dbKeyFactory = dbKeyFactory;
+        }
+
+        @Override
+        V get(DbKey dbKey) {
+            return map.get(dbKey);
+        }
+
+        @Override
+        V get(ResultSet rs) throws SQLException {
+            return map.get(dbKeyFactory.newKey(rs));
+        }
+
+        @Override
+        void put(DbKey dbKey, V value) {
+            map.put(dbKey, value);
+        }
+
+        @Override
+        void remove(DbKey dbKey) {
+            map.remove(dbKey);
+        }
+
+        @Override
+        void clear() {
+            map.clear();
+        }
+
+    }
+
+    /**
+     * Linear probing over parallel arrays of keys and values, with removal by shifting back the following entries of
+     * the same run. A null value marks an empty slot. Keys of one long column have a zero second id.
+     */
+    static final class LongKeyCache<V> extends DbCache<V> {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final String idColumnA;
+        private final String idColumnB;
+        private long[] idsA = new long[INITIAL_CAPACITY];
+        private long[] idsB;
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int mask = INITIAL_CAPACITY - 1;
+        private int size;
+
+        LongKeyCache(String idColumn) {
+            this(idColumn, null);
+        }
+
+        LongKeyCache(String idColumnA, String idColumnB) {
+            this.idColumnA = idColumnA;
+            this.idColumnB = idColumnB;
+            this.idsB = idColumnB != null ? new long[INITIAL_CAPACITY] : null;
+        }
+
+        @Override
+        V get(DbKey dbKey) {
+            if (idsB == null) {
+                return get(((DbKey.LongKey) dbKey).id, 0);
+            }
+            DbKey.LinkKey linkKey = (DbKey.LinkKey) dbKey;
+            return get(linkKey.idA, linkKey.idB);
+        }
+
+        @Override
+        V get(ResultSet rs) throws SQLException {
+            return get(rs.getLong(idColumnA), idsB != null ? rs.getLong(idColumnB) : 0);
+        }
+
+        @Override
+        void put(DbKey dbKey, V value) {
+            if (idsB == null) {
+                put(((DbKey.LongKey) dbKey).id, 0, value);
+            } else {
+                DbKey.LinkKey linkKey = (DbKey.LinkKey) dbKey;
+                put(linkKey.idA, linkKey.idB, value);
+            }
+        }
+
+        @Override
+        void remove(DbKey dbKey) {
+            if (idsB == null) {
+                remove(((DbKey.LongKey) dbKey).id, 0);
+            } else {
+                DbKey.LinkKey linkKey = (DbKey.LinkKey) dbKey;
+                remove(linkKey.idA, linkKey.idB);
+            }
+        }
+
+        @Override
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(values, null);
+                size = 0;
+            }
+        }
+
+        private static int hash(long idA, long idB) {
+            long h = (idA ^ Long.rotateLeft(idB, 32)) * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+
+        private boolean keyEquals(int slot, long idA, long idB) {
+            return idsA[slot] == idA && (idsB == null || idsB[slot] == idB);
+        }
+
+        private int homeSlot(int slot) {
+            return hash(idsA[slot], idsB == null ? 0 : idsB[slot]) & mask;
+        }
+
+        // only values of type V are put
+        @SuppressWarnings("unchecked")
+        private V get(long idA, long idB) {
+            for (int slot = hash(idA, idB) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keyEquals(slot, idA, idB)) {
+                    return (V) values[slot];
+                }
+            }
+            return null;
+        }
+
+        private void put(long idA, long idB, Object value) {
+            if (value == null) {
+                remove(idA, idB);
+                return;
+            }
+            int slot = hash(idA, idB) & mask;
+            for (; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keyEquals(slot, idA, idB)) {
+                    values[slot] = value;
+                    return;
+                }
+            }
+            idsA[slot] = idA;
+            if (idsB != null) {
+                idsB[slot] = idB;
+            }
+            values[slot] = value;
+            if (++size > values.length / 2) {
+                resize(values.length * 2);
+            }
+        }
+
+        private void remove(long idA, long idB) {
+            int slot = hash(idA, idB) & mask;
+            while (values[slot] != null && !keyEquals(slot, idA, idB)) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) {
+                return;
+            }
+            size -= 1;
+            int free = slot;
+            for (int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                // the entry at next can be moved to the free slot only if its home slot is not between them
+                if (((next - homeSlot(next)) & mask) >= ((next - free) & mask)) {
+                    idsA[free] = idsA[next];
+                    if (idsB != null) {
+                        idsB[free] = idsB[next];
+                    }
+                    values[free] = values[next];
+                    free = next;
+                }
+            }
+            values[free] = null;
+        }
+
+        private void resize(int capacity) {
+            long[] oldIdsA = idsA;
+            long[] oldIdsB = idsB;
+            Object[] oldValues = values;
+            idsA = new long[capacity];
+            idsB = oldIdsB != null ? new long[capacity] : null;
+            values = new Object[capacity];
+            mask = capacity - 1;
+            size = 0;
+            for (int slot = 0; slot < oldValues.length; slot++) {
+                if (oldValues[slot] != null) {
+                    put(oldIdsA[slot], oldIdsB != null ? oldIdsB[slot] : 0, oldValues[slot]);
+                }
+            }
+        }
+
+    }
+
+}
@@ -1,11 +1,22 @@
 package nxt.db;
 
+import nxt.Nxt;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoCloseable {
 
@@ -13,29 +24,90 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         T get(Connection con, ResultSet rs) throws Exception;
     }
 
+    private static final int fetchSize = Nxt.getIntProperty("nxt.dbFetchSize");
+    private static final int prefetchRows = Nxt.getIntProperty("nxt.dbPrefetchRows");
+    private static final ThreadPoolExecutor prefetchExecutor;
+    static {
+        int prefetchThreads = Nxt.getIntProperty("nxt.dbPrefetchThreads");
+        if (prefetchRows > 0 && prefetchThreads > 0) {
+            // no queueing, an iterator created while all workers are busy decodes its rows on the caller thread
+            prefetchExecutor = new ThreadPoolExecutor(0, prefetchThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "DbIteratorPrefetch");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        } else {
+            prefetchExecutor = null;
+        }
+    }
+
+    private static final Object END = new Object();
+
+    private static final class Failure {
+        private final Exception exception;
+        private Failure(Exception exception) {
+            this.exception = exception;
+        }
+    }
+
     private final Connection con;
     private final PreparedStatement pstmt;
     private final ResultSetReader<T> rsReader;
     private final ResultSet rs;
+    private final BlockingQueue<Object> prefetched;
+    private final Future<?> prefetchWorker;
 
     private boolean hasNext;
     private boolean iterated;
+    private Object nextPrefetched;
+    private volatile boolean closed;
 
     public DbIterator(Connection con, PreparedStatement pstmt, ResultSetReader<T> rsReader) {
+        this(con, pstmt, rsReader, false);
+    }
+
+    /**
+     * If prefetch is true and nxt.dbPrefetchRows is set, the rows are read and decoded by a worker thread, up to
+     * nxt.dbPrefetchRows ahead of the caller. The reader must then only use the connection it is given, and the
+     * connection must not be the one of a database transaction, as those can only be used by their own thread.
+     */
+    public DbIterator(Connection con, PreparedStatement pstmt, ResultSetReader<T> rsReader, boolean prefetch) {
         this.con = con;
         this.pstmt = pstmt;
         this.rsReader = rsReader;
         try {
+            if (fetchSize > 0) {
+                pstmt.setFetchSize(fetchSize);
+            }
             this.rs = pstmt.executeQuery();
             this.hasNext = rs.next();
         } catch (SQLException e) {
             DbUtils.close(pstmt, con);
             throw new RuntimeException(e.toString(), e);
         }
+        BlockingQueue<Object> queue = null;
+        Future<?> worker = null;
+        if (prefetch && hasNext && prefetchExecutor != null) {
+            queue = new ArrayBlockingQueue<>(prefetchRows);
+            try {
+                worker = prefetchExecutor.submit(new Prefetcher(queue));
+            } catch (RejectedExecutionException e) {
+                queue = null;
+            }
+        }
+        this.prefetched = queue;
+        this.prefetchWorker = worker;
     }
 
     @Override
     public boolean hasNext() {
+        if (prefetched != null) {
+            return hasNextPrefetched();
+        }
         if (! hasNext) {
             DbUtils.close(rs, pstmt, con);
         }
@@ -44,6 +116,9 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
 
     @Override
     public T next() {
+        if (prefetched != null) {
+            return nextPrefetched();
+        }
         if (! hasNext) {
             DbUtils.close(rs, pstmt, con);
             throw new NoSuchElementException();
@@ -58,6 +133,41 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         }
     }
 
+    private boolean hasNextPrefetched() {
+        if (nextPrefetched == null) {
+            if (closed) {
+                return false;
+            }
+            try {
+                nextPrefetched = prefetched.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+        if (nextPrefetched == END) {
+            close();
+            return false;
+        }
+        if (nextPrefetched instanceof Failure) {
+            Exception e = ((Failure) nextPrefetched).exception;
+            close();
+            throw new RuntimeException(e.toString(), e);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T nextPrefetched() {
+        if (! hasNextPrefetched()) {
+            throw new NoSuchElementException();
+        }
+        T result = (T) nextPrefetched;
+        nextPrefetched = null;
+        return result;
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException("Removal not supported");
@@ -65,6 +175,21 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
 
     @Override
     public void close() {
+        if (prefetched != null) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            nextPrefetched = END;
+            // make room for the row the worker may be waiting to add, it checks for closed after each row
+            prefetched.clear();
+            try {
+                prefetchWorker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignore) {}
+            prefetched.clear();
+        }
         DbUtils.close(rs, pstmt, con);
     }
 
@@ -76,4 +201,38 @@ public final class DbIterator<T> implements Iterator<T>, Iterable<T>, AutoClosea
         iterated = true;
         return this;
     }
+
+    private final class Prefetcher implements Runnable {
+
+        private final BlockingQueue<Object> queue;
+
+        private Prefetcher(BlockingQueue<Object> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean more = true;
+                while (more && !closed) {
+                    T result;
+                    try {
+                        result = rsReader.get(con, rs);
+                        more = rs.next();
+                    } catch (Exception e) {
+                        queue.put(new Failure(e));
+                        return;
+                    }
+                    queue.put(result);
+                }
+                if (!closed) {
+                    queue.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
 }
@@ -22,6 +22,10 @@ public interface DbKey {
 
         public abstract DbKey newKey(ResultSet rs) throws SQLException;
 
+        <V> DbCache<V> newCache() {
+            return new DbCache.MapCache<>(this);
+        }
+
         public final String getPKClause() {
             return pkClause;
         }
@@ -62,6 +66,11 @@ public interface DbKey {
             return new LongKey(id);
         }
 
+        @Override
+        <V> DbCache<V> newCache() {
+            return new DbCache.LongKeyCache<>(idColumn);
+        }
+
     }
 
     public static abstract class StringKeyFactory<T> extends Factory<T> {
@@ -108,11 +117,16 @@ public interface DbKey {
             return new LinkKey(idA, idB);
         }
 
+        @Override
+        <V> DbCache<V> newCache() {
+            return new DbCache.LongKeyCache<>(idColumnA, idColumnB);
+        }
+
     }
 
     static final class LongKey implements DbKey {
 
-        private final long id;
+        final long id;
 
         private LongKey(long id) {
             this.id = id;
@@ -174,8 +188,8 @@ public interface DbKey {
 
     static final class LinkKey implements DbKey {
 
-        private final long idA;
-        private final long idB;
+        final long idA;
+        final long idB;
 
         private LinkKey(long idA, long idB) {
             this.idA = idA;
@@ -48,6 +48,18 @@ public abstract class DerivedDbTable {
         //nothing to trim
     }
 
+    /**
+     * Continues the work queued by the last call to {@link #trim(int)}, trimming at most maxKeys keys,
+     * returns the number of keys trimmed
+     */
+    public int trimPending(int maxKeys) {
+        return 0;
+    }
+
+    public final String getTable() {
+        return table;
+    }
+
     @Override
     public String toString() {
         return table;
@@ -0,0 +1,167 @@
+package nxt.db;
+
+import nxt.Nxt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Keys of a versioned table which received new versions, by height, so that trimming only needs to visit those keys
+ * instead of grouping the whole table. Versions created before the node started, or loaded into a truncated table by
+ * other means than inserts, are not tracked, trims are therefore full trims until the trim height has passed the height
+ * at which tracking started. After a restart these are the first two trims, as the first one is at a height below the
+ * start.
+ */
+final class DirtyKeys implements TransactionalDb.TransactionCallback {
+
+    private static final boolean trimDerivedTables = Nxt.getBooleanProperty("nxt.trimDerivedTables");
+
+    static DirtyKeys forTable(TransactionalDb db, String table, DbKey.Factory<?> dbKeyFactory) {
+        return trimDerivedTables ? new DirtyKeys(db, table, dbKeyFactory) : null;
+    }
+
+    private final TransactionalDb db;
+    private final String table;
+    private final DbKey.Factory<?> dbKeyFactory;
+    private final String deleteOldVersionsSql;
+    private final String deleteDeletedSql;
+    private final SortedMap<Integer,Set<DbKey>> keysByHeight = new TreeMap<>();
+    private final Set<DbKey> pendingKeys = new LinkedHashSet<>();
+    private final List<DbKey> trimmedKeys = new ArrayList<>();
+    // keys removed by trim in the current transaction, put back if it is rolled back
+    private final SortedMap<Integer,Set<DbKey>> removedKeysByHeight = new TreeMap<>();
+    private final Set<DbKey> removedPendingKeys = new LinkedHashSet<>();
+    // all versions at heights above trackedFromHeight have been added
+    private int trackedFromHeight = Integer.MAX_VALUE;
+    private int trimHeight;
+    private int committedTrimHeight;
+
+    private DirtyKeys(TransactionalDb db, String table, DbKey.Factory<?> dbKeyFactory) {
+        this.db = db;
+        this.table = table;
+        this.dbKeyFactory = dbKeyFactory;
+        this.deleteOldVersionsSql = "DELETE FROM " + table + dbKeyFactory.getPKClause() + " AND height < (SELECT MAX(height) FROM "
+                + table + dbKeyFactory.getPKClause() + " AND height < ?) AND height >= 0";
+        this.deleteDeletedSql = "DELETE FROM " + table + dbKeyFactory.getPKClause() + " AND height < ? AND height >= 0 AND latest = FALSE "
+                + "AND NOT EXISTS (SELECT 1 FROM " + table + dbKeyFactory.getPKClause() + " AND height >= ?)";
+    }
+
+    synchronized void add(DbKey dbKey, int height) {
+        // the first version added after a restart, or after a rollback below the tracked height, may replace untracked ones
+        trackedFromHeight = Math.min(trackedFromHeight, height - 1);
+        Set<DbKey> keys = keysByHeight.get(height);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            keysByHeight.put(height, keys);
+        }
+        keys.add(dbKey);
+    }
+
+    synchronized void truncate() {
+        keysByHeight.clear();
+        pendingKeys.clear();
+        // the table may be filled again by other means than inserts, as when importing a snapshot
+        trackedFromHeight = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Queues the keys which received a new version below height, or trims the whole table if some of those versions
+     * were not tracked
+     */
+    synchronized void trim(int height) {
+        SortedMap<Integer,Set<DbKey>> dirtyKeys = keysByHeight.headMap(height);
+        for (Map.Entry<Integer,Set<DbKey>> entry : dirtyKeys.entrySet()) {
+            Set<DbKey> removedKeys = removedKeysByHeight.get(entry.getKey());
+            if (removedKeys == null) {
+                removedKeysByHeight.put(entry.getKey(), entry.getValue());
+            } else {
+                removedKeys.addAll(entry.getValue());
+            }
+        }
+        if (trimHeight <= trackedFromHeight) {
+            VersionedEntityDbTable.trim(db, table, height, dbKeyFactory);
+            removedPendingKeys.addAll(pendingKeys);
+            pendingKeys.clear();
+        } else {
+            for (Set<DbKey> keys : dirtyKeys.values()) {
+                pendingKeys.addAll(keys);
+            }
+        }
+        dirtyKeys.clear();
+        trimHeight = height;
+        db.registerCallback(this);
+    }
+
+    /**
+     * Trims at most maxKeys of the queued keys, returns the number of keys trimmed
+     */
+    synchronized int trimPending(int maxKeys) {
+        if (pendingKeys.isEmpty() || maxKeys <= 0) {
+            return 0;
+        }
+        int count = 0;
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtDeleteOld = con.prepareStatement(deleteOldVersionsSql);
+             PreparedStatement pstmtDeleteDeleted = con.prepareStatement(deleteDeletedSql)) {
+            Iterator<DbKey> iterator = pendingKeys.iterator();
+            while (iterator.hasNext() && count < maxKeys) {
+                DbKey dbKey = iterator.next();
+                int i = dbKey.setPK(pstmtDeleteOld);
+                i = dbKey.setPK(pstmtDeleteOld, i);
+                pstmtDeleteOld.setInt(i, trimHeight);
+                pstmtDeleteOld.addBatch();
+                i = dbKey.setPK(pstmtDeleteDeleted);
+                pstmtDeleteDeleted.setInt(i, trimHeight);
+                i = dbKey.setPK(pstmtDeleteDeleted, ++i);
+                pstmtDeleteDeleted.setInt(i, trimHeight);
+                pstmtDeleteDeleted.addBatch();
+                iterator.remove();
+                trimmedKeys.add(dbKey);
+                count += 1;
+            }
+            pstmtDeleteOld.executeBatch();
+            pstmtDeleteDeleted.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        db.registerCallback(this);
+        return count;
+    }
+
+    @Override
+    public synchronized void commit() {
+        trimmedKeys.clear();
+        removedKeysByHeight.clear();
+        removedPendingKeys.clear();
+        committedTrimHeight = trimHeight;
+    }
+
+    @Override
+    public synchronized void rollback() {
+        // keys queued by the rolled back trim stay queued, trimming them at the committed trim height is still valid
+        pendingKeys.addAll(trimmedKeys);
+        pendingKeys.addAll(removedPendingKeys);
+        trimmedKeys.clear();
+        removedPendingKeys.clear();
+        for (Map.Entry<Integer,Set<DbKey>> entry : removedKeysByHeight.entrySet()) {
+            Set<DbKey> keys = keysByHeight.get(entry.getKey());
+            if (keys == null) {
+                keysByHeight.put(entry.getKey(), entry.getValue());
+            } else {
+                keys.addAll(entry.getValue());
+            }
+        }
+        removedKeysByHeight.clear();
+        trimHeight = committedTrimHeight;
+    }
+
+}
@@ -0,0 +1,114 @@
+package nxt.db;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Node-wide cache of the latest committed version of the entities of one table, shared by all threads.
+ * Only reads done outside of a database transaction are served from it, entities loaded or modified
+ * inside a transaction are published to it only after that transaction has been committed.
+ */
+public final class EntityCache {
+
+    private static final List<EntityCache> caches = new CopyOnWriteArrayList<>();
+
+    public static List<EntityCache> getAll() {
+        return Collections.unmodifiableList(caches);
+    }
+
+    private final String table;
+    private final int maxSize;
+    private final Map<DbKey,Object> cache;
+    private long modCount;
+    private long hits;
+    private long misses;
+
+    EntityCache(String table, final int maxSize) {
+        this.table = table;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<DbKey,Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DbKey,Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+        caches.add(this);
+    }
+
+    synchronized Object get(DbKey dbKey) {
+        Object t = cache.get(dbKey);
+        if (t != null) {
+            hits += 1;
+        } else {
+            misses += 1;
+        }
+        return t;
+    }
+
+    /**
+     * Must be obtained before reading an entity from the database, and passed back to {@link #put(DbKey, Object, long)}
+     */
+    synchronized long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Adds an entity read from the database, unless the table has been modified since the read started
+     */
+    synchronized void put(DbKey dbKey, Object t, long readModCount) {
+        if (readModCount == modCount) {
+            cache.put(dbKey, t);
+        }
+    }
+
+    synchronized void remove(DbKey dbKey) {
+        modCount += 1;
+        cache.remove(dbKey);
+    }
+
+    /**
+     * Publishes the state of a committed transaction, a null value means the entity was deleted
+     */
+    synchronized void commit(Map<DbKey,Object> updates, boolean clear) {
+        modCount += 1;
+        if (clear) {
+            cache.clear();
+        }
+        for (Map.Entry<DbKey,Object> entry : updates.entrySet()) {
+            if (entry.getValue() == null) {
+                cache.remove(entry.getKey());
+            } else {
+                cache.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    synchronized void clear() {
+        modCount += 1;
+        cache.clear();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getSize() {
+        return cache.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+}
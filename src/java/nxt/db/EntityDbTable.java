@@ -6,22 +6,85 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public abstract class EntityDbTable<T> extends DerivedDbTable {
 
+    private static final int entityCacheSize = Nxt.getIntProperty("nxt.entityCacheSize");
+    private static final boolean writeBehind = Nxt.getBooleanProperty("nxt.dbWriteBehind");
+
     private final boolean multiversion;
+    final boolean intervalVersioned;
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
+    private final String selectSql;
+    private final String selectAtHeightSql;
+    private final String selectCountSql;
+    private final String selectRowCountSql;
+    final String updateLatestSql;
+    private final EntityCache entityCache;
+    private final ThreadLocal<EntityCacheUpdates> entityCacheUpdates;
+    private final ThreadLocal<WriteBuffer> writeBuffers;
+    final DirtyKeys dirtyKeys;
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        this(table, dbKeyFactory, false);
+        this(table, dbKeyFactory, false, false);
+    }
+
+    /**
+     * Tables created with cached set to true keep the latest version of their most recently used entities
+     * in a node-wide cache, of size nxt.entityCacheSize. Only tables which are modified exclusively through
+     * insert and delete may be cached.
+     */
+    protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean cached) {
+        this(table, dbKeyFactory, false, cached);
     }
 
-    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion) {
+    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion, boolean cached) {
+        this(table, dbKeyFactory, multiversion, cached, false);
+    }
+
+    EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean multiversion, boolean cached, boolean intervalVersioned) {
         super(table);
         this.dbKeyFactory = dbKeyFactory;
         this.multiversion = multiversion;
+        this.intervalVersioned = intervalVersioned;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC ");
+        this.selectSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause()
+                + (multiversion ? " AND latest = TRUE LIMIT 1" : "");
+        this.selectAtHeightSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause()
+                + " AND height <= ?" + (intervalVersioned ? " AND (latest = TRUE OR valid_until > ?) LIMIT 1"
+                : multiversion ? " AND (latest = TRUE OR EXISTS ("
+                + "SELECT 1 FROM " + table + dbKeyFactory.getPKClause() + " AND height > ?)) ORDER BY height DESC LIMIT 1" : "");
+        this.selectCountSql = "SELECT COUNT(*) FROM " + table + (multiversion ? " WHERE latest = TRUE" : "");
+        this.selectRowCountSql = "SELECT COUNT(*) FROM " + table;
+        this.updateLatestSql = "UPDATE " + table + " SET latest = FALSE" + (intervalVersioned ? ", valid_until = ?" : "") + " "
+                + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1";
+        if (cached && entityCacheSize > 0) {
+            this.entityCache = new EntityCache(table, entityCacheSize);
+            this.entityCacheUpdates = new ThreadLocal<EntityCacheUpdates>() {
+                @Override
+                protected EntityCacheUpdates initialValue() {
+                    return new EntityCacheUpdates();
+                }
+            };
+        } else {
+            this.entityCache = null;
+            this.entityCacheUpdates = null;
+        }
+        this.dirtyKeys = multiversion ? DirtyKeys.forTable(db, table, dbKeyFactory) : null;
+        if (writeBehind) {
+            this.writeBuffers = new ThreadLocal<WriteBuffer>() {
+                @Override
+                protected WriteBuffer initialValue() {
+                    return new WriteBuffer();
+                }
+            };
+        } else {
+            this.writeBuffers = null;
+        }
     }
 
     protected abstract T load(Connection con, ResultSet rs) throws SQLException;
@@ -33,7 +96,12 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     protected void clearCache() {
-        db.getCache(table).clear();
+        flushPendingWrites();
+        db.getCache(table, dbKeyFactory).clear();
+        if (entityCache != null) {
+            entityCache.clear();
+            entityCacheUpdates.get().clear();
+        }
     }
 
     public void checkAvailable(int height) {
@@ -44,14 +112,18 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final T get(DbKey dbKey) {
         if (db.isInTransaction()) {
-            T t = (T) db.getCache(table).get(dbKey);
+            T t = db.<T>getCache(table, dbKeyFactory).get(dbKey);
+            if (t != null) {
+                return t;
+            }
+        } else if (entityCache != null) {
+            T t = (T) entityCache.get(dbKey);
             if (t != null) {
                 return t;
             }
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-             + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(selectSql)) {
             dbKey.setPK(pstmt);
             return get(con, pstmt, true);
         } catch (SQLException e) {
@@ -61,13 +133,14 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final T get(DbKey dbKey, int height) {
         checkAvailable(height);
+        flushPendingWrites();
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-                     + " AND height <= ?" + (multiversion ? " AND (latest = TRUE OR EXISTS ("
-                     + "SELECT 1 FROM " + table + dbKeyFactory.getPKClause() + " AND height > ?)) ORDER BY height DESC LIMIT 1" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(selectAtHeightSql)) {
             int i = dbKey.setPK(pstmt);
             pstmt.setInt(i, height);
-            if (multiversion) {
+            if (intervalVersioned) {
+                pstmt.setInt(++i, height);
+            } else if (multiversion) {
                 i = dbKey.setPK(pstmt, ++i);
                 pstmt.setInt(i, height);
             }
@@ -78,6 +151,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final T getBy(DbClause dbClause) {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table
                      + " WHERE " + dbClause.getClause() + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
@@ -90,9 +164,11 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final T getBy(DbClause dbClause, int height) {
         checkAvailable(height);
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE " + dbClause.getClause()
-                     + " AND height <= ?" + (multiversion ? " AND (latest = TRUE OR EXISTS ("
+                     + " AND height <= ?" + (intervalVersioned ? " AND (latest = TRUE OR valid_until > ?) LIMIT 1"
+                     : multiversion ? " AND (latest = TRUE OR EXISTS ("
                      + "SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
                      + " AND b.height > ?)) ORDER BY height DESC LIMIT 1" : ""))) {
             int i = 0;
@@ -109,6 +185,8 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     private T get(Connection con, PreparedStatement pstmt, boolean cache) throws SQLException {
         final boolean doCache = cache && db.isInTransaction();
+        final boolean doEntityCache = cache && !doCache && entityCache != null;
+        final long modCount = doEntityCache ? entityCache.getModCount() : 0;
         try (ResultSet rs = pstmt.executeQuery()) {
             if (!rs.next()) {
                 return null;
@@ -116,18 +194,22 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             T t = null;
             DbKey dbKey = null;
             if (doCache) {
-                dbKey = dbKeyFactory.newKey(rs);
-                t = (T) db.getCache(table).get(dbKey);
+                t = db.<T>getCache(table, dbKeyFactory).get(rs);
             }
             if (t == null) {
                 t = load(con, rs);
                 if (doCache) {
-                    db.getCache(table).put(dbKey, t);
+                    db.getCache(table, dbKeyFactory).put(dbKeyFactory.newKey(rs), t);
+                } else if (doEntityCache) {
+                    dbKey = dbKeyFactory.newKey(rs);
                 }
             }
             if (rs.next()) {
                 throw new RuntimeException("Multiple records found");
             }
+            if (doEntityCache) {
+                entityCache.put(dbKey, t, modCount);
+            }
             return t;
         }
     }
@@ -163,7 +245,8 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         try {
             con = db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE " + dbClause.getClause()
-                    + "AND a.height <= ?" + (multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
+                    + "AND a.height <= ?" + (intervalVersioned ? " AND (a.latest = TRUE OR a.valid_until > ?) "
+                    : multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
                     + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause() + " AND b.height > ?) "
                     + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
                     + " AND b.height <= ? AND b.height > a.height))) "
@@ -172,7 +255,9 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             int i = 0;
             i = dbClause.set(pstmt, ++i);
             pstmt.setInt(i, height);
-            if (multiversion) {
+            if (intervalVersioned) {
+                pstmt.setInt(++i, height);
+            } else if (multiversion) {
                 pstmt.setInt(++i, height);
                 pstmt.setInt(++i, height);
             }
@@ -185,20 +270,19 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final DbIterator<T> getManyBy(Connection con, PreparedStatement pstmt, boolean cache) {
+        flushPendingWrites();
         final boolean doCache = cache && db.isInTransaction();
         return new DbIterator<>(con, pstmt, new DbIterator.ResultSetReader<T>() {
             @Override
             public T get(Connection con, ResultSet rs) throws Exception {
                 T t = null;
-                DbKey dbKey = null;
                 if (doCache) {
-                    dbKey = dbKeyFactory.newKey(rs);
-                    t = (T) db.getCache(table).get(dbKey);
+                    t = db.<T>getCache(table, dbKeyFactory).get(rs);
                 }
                 if (t == null) {
                     t = load(con, rs);
                     if (doCache) {
-                        db.getCache(table).put(dbKey, t);
+                        db.getCache(table, dbKeyFactory).put(dbKeyFactory.newKey(rs), t);
                     }
                 }
                 return t;
@@ -259,14 +343,17 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         try {
             con = db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " AS a WHERE height <= ?"
-                    + (multiversion ? " AND (latest = TRUE OR (latest = FALSE "
+                    + (intervalVersioned ? " AND (latest = TRUE OR valid_until > ?) "
+                    : multiversion ? " AND (latest = TRUE OR (latest = FALSE "
                     + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE b.height > ? AND " + dbKeyFactory.getSelfJoinClause()
                     + ") AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE b.height <= ? AND " + dbKeyFactory.getSelfJoinClause()
                     + " AND b.height > a.height))) " : " ") + sort
                     + DbUtils.limitsClause(from, to));
             int i = 0;
             pstmt.setInt(++i, height);
-            if (multiversion) {
+            if (intervalVersioned) {
+                pstmt.setInt(++i, height);
+            } else if (multiversion) {
                 pstmt.setInt(++i, height);
                 pstmt.setInt(++i, height);
             }
@@ -279,9 +366,9 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final int getCount() {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
-                     + (multiversion ? " WHERE latest = TRUE" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(selectCountSql)) {
             return getCount(pstmt);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -289,6 +376,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final int getCount(DbClause dbClause) {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
                      + " WHERE " + dbClause.getClause() + (multiversion ? " AND latest = TRUE" : ""))) {
@@ -301,11 +389,13 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     public final int getCount(DbClause dbClause, int height) {
         checkAvailable(height);
+        flushPendingWrites();
         Connection con = null;
         try {
             con = db.getConnection();
             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table + " AS a WHERE " + dbClause.getClause()
-                    + "AND a.height <= ?" + (multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
+                    + "AND a.height <= ?" + (intervalVersioned ? " AND (a.latest = TRUE OR a.valid_until > ?) "
+                    : multiversion ? " AND (a.latest = TRUE OR (a.latest = FALSE "
                     + "AND EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause() + " AND b.height > ?) "
                     + "AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + dbKeyFactory.getSelfJoinClause()
                     + " AND b.height <= ? AND b.height > a.height))) "
@@ -313,7 +403,9 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             int i = 0;
             i = dbClause.set(pstmt, ++i);
             pstmt.setInt(i, height);
-            if (multiversion) {
+            if (intervalVersioned) {
+                pstmt.setInt(++i, height);
+            } else if (multiversion) {
                 pstmt.setInt(++i, height);
                 pstmt.setInt(++i, height);
             }
@@ -325,8 +417,9 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     }
 
     public final int getRowCount() {
+        flushPendingWrites();
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table)) {
+             PreparedStatement pstmt = con.prepareStatement(selectRowCountSql)) {
             return getCount(pstmt);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -345,18 +438,27 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
-        T cachedT = (T) db.getCache(table).get(dbKey);
+        T cachedT = db.<T>getCache(table, dbKeyFactory).get(dbKey);
         if (cachedT == null) {
-            db.getCache(table).put(dbKey, t);
+            db.getCache(table, dbKeyFactory).put(dbKey, t);
         } else if (t != cachedT) { // not a bug
             throw new IllegalStateException("Different instance found in Db cache, perhaps trying to save an object "
                     + "that was read outside the current transaction");
         }
+        entityCacheUpdate(dbKey, t);
+        if (dirtyKeys != null) {
+            dirtyKeys.add(dbKey, Nxt.getBlockchain().getHeight());
+        }
+        if (writeBuffers != null) {
+            WriteBuffer writeBuffer = writeBuffers.get();
+            writeBuffer.entities.put(dbKey, t);
+            db.registerPendingWrites(writeBuffer);
+            return;
+        }
         try (Connection con = db.getConnection()) {
             if (multiversion) {
-                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
-                    dbKey.setPK(pstmt);
+                try (PreparedStatement pstmt = con.prepareStatement(updateLatestSql)) {
+                    setUpdateLatestParameters(pstmt, dbKey, Nxt.getBlockchain().getHeight());
                     pstmt.executeUpdate();
                 }
             }
@@ -366,16 +468,190 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    final void setUpdateLatestParameters(PreparedStatement pstmt, DbKey dbKey, int height) throws SQLException {
+        int i = 1;
+        if (intervalVersioned) {
+            pstmt.setInt(i++, height);
+        }
+        dbKey.setPK(pstmt, i);
+    }
+
+    final void entityCacheUpdate(DbKey dbKey, T t) {
+        if (entityCache != null) {
+            entityCache.remove(dbKey);
+            EntityCacheUpdates updates = entityCacheUpdates.get();
+            updates.updates.put(dbKey, t);
+            db.registerCallback(updates);
+        }
+    }
+
+    /**
+     * Writes the entities inserted in the current transaction which are still buffered, must be called
+     * before querying or modifying this table with any SQL other than a lookup by key
+     */
+    final void flushPendingWrites() {
+        if (writeBuffers != null && db.isInTransaction()) {
+            writeBuffers.get().flush();
+        }
+    }
+
     @Override
     public void rollback(int height) {
+        flushPendingWrites();
         super.rollback(height);
-        db.getCache(table).clear();
+        clearCache();
     }
 
     @Override
     public void truncate() {
+        flushPendingWrites();
         super.truncate();
-        db.getCache(table).clear();
+        clearCache();
+        if (dirtyKeys != null) {
+            dirtyKeys.truncate();
+        }
+    }
+
+    public final EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    private final class EntityCacheUpdates implements TransactionalDb.TransactionCallback {
+
+        private final Map<DbKey,Object> updates = new HashMap<>();
+        private boolean cleared;
+
+        private void clear() {
+            updates.clear();
+            cleared = true;
+            db.registerCallback(this);
+        }
+
+        @Override
+        public void commit() {
+            entityCache.commit(updates, cleared);
+            // the transaction may go on after a commit, it must not keep modifying the instances now shared
+            DbCache<T> cache = db.getCache(table, dbKeyFactory);
+            for (DbKey dbKey : updates.keySet()) {
+                cache.remove(dbKey);
+            }
+            rollback();
+        }
+
+        @Override
+        public void rollback() {
+            updates.clear();
+            cleared = false;
+        }
+
+    }
+
+    /**
+     * Latest state of the entities inserted in the current transaction, saved in one batch per statement
+     * when the transaction is committed or when the table is queried
+     */
+    private final class WriteBuffer implements TransactionalDb.PendingWrites {
+
+        private final Map<DbKey,T> entities = new LinkedHashMap<>();
+
+        @Override
+        public void flush() {
+            if (entities.isEmpty()) {
+                return;
+            }
+            try (Connection con = db.getConnection()) {
+                if (multiversion) {
+                    try (PreparedStatement pstmt = con.prepareStatement(updateLatestSql)) {
+                        int height = Nxt.getBlockchain().getHeight();
+                        for (DbKey dbKey : entities.keySet()) {
+                            setUpdateLatestParameters(pstmt, dbKey, height);
+                            pstmt.addBatch();
+                        }
+                        pstmt.executeBatch();
+                    }
+                }
+                try (BatchConnection batchCon = new BatchConnection(con)) {
+                    for (T t : entities.values()) {
+                        save(batchCon, t);
+                    }
+                    batchCon.executeBatch();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            } finally {
+                entities.clear();
+            }
+        }
+
+        @Override
+        public void discard() {
+            entities.clear();
+        }
+
+    }
+
+    /**
+     * Collects the updates executed by {@link #save(Connection, Object)} into batches, one for each distinct statement
+     */
+    private static final class BatchConnection extends FilteredConnection {
+
+        private final Map<String,BatchStatement> statements = new LinkedHashMap<>();
+
+        private BatchConnection(Connection con) {
+            super(con);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            BatchStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = new BatchStatement(super.prepareStatement(sql));
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        private void executeBatch() throws SQLException {
+            for (BatchStatement stmt : statements.values()) {
+                stmt.doExecuteBatch();
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (BatchStatement stmt : statements.values()) {
+                stmt.doClose();
+            }
+            statements.clear();
+        }
+
+    }
+
+    private static final class BatchStatement extends FilteredPreparedStatement {
+
+        private BatchStatement(PreparedStatement stmt) {
+            super(stmt);
+        }
+
+        @Override
+        public int executeUpdate() throws SQLException {
+            addBatch();
+            return 1;
+        }
+
+        @Override
+        public void close() {
+            // closed by BatchConnection after the batch has been executed
+        }
+
+        private void doExecuteBatch() throws SQLException {
+            super.executeBatch();
+        }
+
+        private void doClose() throws SQLException {
+            super.close();
+        }
+
     }
 
 }
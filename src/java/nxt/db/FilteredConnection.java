@@ -8,6 +8,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -15,6 +16,7 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
@@ -22,9 +24,12 @@ import java.util.concurrent.Executor;
 public class FilteredConnection implements Connection {
 
     private final Connection con;
+    // statements are instrumented only by the filter closest to the driver
+    private final boolean collectStatementStats;
 
     public FilteredConnection(Connection con) {
         this.con = con;
+        this.collectStatementStats = StatementStats.enabled && !(con instanceof FilteredConnection);
     }
 
     @Override
@@ -34,7 +39,7 @@ public class FilteredConnection implements Connection {
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return con.prepareStatement(sql);
+        return instrument(con.prepareStatement(sql), sql);
     }
 
     @Override
@@ -129,7 +134,7 @@ public class FilteredConnection implements Connection {
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return con.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        return instrument(con.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
     }
 
     @Override
@@ -184,7 +189,7 @@ public class FilteredConnection implements Connection {
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return con.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return instrument(con.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
     }
 
     @Override
@@ -194,17 +199,17 @@ public class FilteredConnection implements Connection {
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return con.prepareStatement(sql, autoGeneratedKeys);
+        return instrument(con.prepareStatement(sql, autoGeneratedKeys), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return con.prepareStatement(sql, columnIndexes);
+        return instrument(con.prepareStatement(sql, columnIndexes), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return con.prepareStatement(sql, columnNames);
+        return instrument(con.prepareStatement(sql, columnNames), sql);
     }
 
     @Override
@@ -296,4 +301,147 @@ public class FilteredConnection implements Connection {
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
         return con.isWrapperFor(iface);
     }
+
+    private PreparedStatement instrument(PreparedStatement pstmt, String sql) {
+        return collectStatementStats ? new InstrumentedStatement(pstmt, sql) : pstmt;
+    }
+
+    private static final class InstrumentedStatement extends FilteredPreparedStatement {
+
+        private final String sql;
+        private final StatementStats stats;
+        private Object[] parameters;
+        private int parameterCount;
+
+        private InstrumentedStatement(PreparedStatement stmt, String sql) {
+            super(stmt);
+            this.sql = sql;
+            this.stats = StatementStats.get(sql);
+        }
+
+        private void setParameter(int parameterIndex, Object x) {
+            if (!StatementStats.logSlowStatements) {
+                return;
+            }
+            if (parameters == null) {
+                parameters = new Object[Math.max(parameterIndex, 8)];
+            } else if (parameters.length < parameterIndex) {
+                parameters = Arrays.copyOf(parameters, Math.max(parameterIndex, parameters.length * 2));
+            }
+            parameters[parameterIndex - 1] = x;
+            parameterCount = Math.max(parameterCount, parameterIndex);
+        }
+
+        private void recordExecution(long start, boolean withParameters) {
+            long nanos = System.nanoTime() - start;
+            if (stats.record(nanos)) {
+                StatementStats.logSlowStatement(sql, nanos, withParameters && parameters != null ? Arrays.copyOf(parameters, parameterCount) : null);
+            }
+        }
+
+        @Override
+        public boolean execute() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return super.execute();
+            } finally {
+                recordExecution(start, true);
+            }
+        }
+
+        @Override
+        public ResultSet executeQuery() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return super.executeQuery();
+            } finally {
+                recordExecution(start, true);
+            }
+        }
+
+        @Override
+        public int executeUpdate() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return super.executeUpdate();
+            } finally {
+                recordExecution(start, true);
+            }
+        }
+
+        @Override
+        public int[] executeBatch() throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return super.executeBatch();
+            } finally {
+                recordExecution(start, false);
+            }
+        }
+
+        @Override
+        public void clearParameters() throws SQLException {
+            super.clearParameters();
+            if (parameters != null) {
+                Arrays.fill(parameters, null);
+                parameterCount = 0;
+            }
+        }
+
+        @Override
+        public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+            super.setBoolean(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setByte(int parameterIndex, byte x) throws SQLException {
+            super.setByte(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setShort(int parameterIndex, short x) throws SQLException {
+            super.setShort(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setInt(int parameterIndex, int x) throws SQLException {
+            super.setInt(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setLong(int parameterIndex, long x) throws SQLException {
+            super.setLong(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setString(int parameterIndex, String x) throws SQLException {
+            super.setString(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+            super.setBytes(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+        @Override
+        public void setNull(int parameterIndex, int sqlType) throws SQLException {
+            super.setNull(parameterIndex, sqlType);
+            setParameter(parameterIndex, null);
+        }
+
+        @Override
+        public void setObject(int parameterIndex, Object x) throws SQLException {
+            super.setObject(parameterIndex, x);
+            setParameter(parameterIndex, x);
+        }
+
+    }
+
 }
@@ -0,0 +1,149 @@
+package nxt.db;
+
+import nxt.Nxt;
+import nxt.util.Convert;
+import nxt.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * Execution count, total time and latency histogram of the statements prepared with the same SQL text, collected by
+ * {@link FilteredConnection} if nxt.enableDbStatementStats is set. The statistics are looked up once when a statement
+ * is prepared, so that each execution only costs two calls to System.nanoTime() and a few atomic increments.
+ */
+public final class StatementStats {
+
+    static final boolean enabled = Nxt.getBooleanProperty("nxt.enableDbStatementStats");
+    private static final long slowStatementNanos = Nxt.getIntProperty("nxt.dbSlowStatementThreshold") * 1000000L;
+    static final boolean logSlowStatements = slowStatementNanos > 0;
+    private static final int MAX_STATEMENTS = 2000;
+
+    // bucket i counts the executions which took less than 2^i microseconds, the last one all the longer executions
+    public static final int HISTOGRAM_BUCKETS = 24;
+
+    private static final Pattern LITERALS = Pattern.compile("'(?:[^']|'')*'|(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final ConcurrentMap<String,StatementStats> statementStats = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String,StatementStats> statementStatsBySql = new ConcurrentHashMap<>();
+    private static final StatementStats otherStatements = new StatementStats("OTHER");
+
+    public static Collection<StatementStats> getAll() {
+        List<StatementStats> all = new ArrayList<>(statementStats.values());
+        if (otherStatements.getCount() > 0) {
+            all.add(otherStatements);
+        }
+        return Collections.unmodifiableList(all);
+    }
+
+    // counters are cleared rather than removed, as open statements keep a reference to their statistics
+    public static void reset() {
+        for (StatementStats stats : statementStats.values()) {
+            stats.clear();
+        }
+        otherStatements.clear();
+    }
+
+    static StatementStats get(String sql) {
+        StatementStats stats = statementStatsBySql.get(sql);
+        if (stats == null) {
+            // ad hoc SQL, such as from the database shell, must not fill the maps
+            if (statementStatsBySql.size() >= MAX_STATEMENTS) {
+                return otherStatements;
+            }
+            String normalizedSql = normalize(sql);
+            stats = statementStats.get(normalizedSql);
+            if (stats == null) {
+                stats = new StatementStats(normalizedSql);
+                StatementStats previous = statementStats.putIfAbsent(normalizedSql, stats);
+                if (previous != null) {
+                    stats = previous;
+                }
+            }
+            statementStatsBySql.put(sql, stats);
+        }
+        return stats;
+    }
+
+    // literals are replaced with ?, so that statements built with constants inlined share their statistics
+    static String normalize(String sql) {
+        return WHITESPACE.matcher(LITERALS.matcher(sql).replaceAll("?")).replaceAll(" ").trim();
+    }
+
+    private final String sql;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    private StatementStats(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Returns true if the execution took longer than nxt.dbSlowStatementThreshold
+     */
+    boolean record(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos));
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        histogram.incrementAndGet(Math.min(bucket, HISTOGRAM_BUCKETS - 1));
+        return logSlowStatements && nanos >= slowStatementNanos;
+    }
+
+    static void logSlowStatement(String sql, long nanos, Object[] parameters) {
+        StringBuilder buf = new StringBuilder("Slow statement took ").append(nanos / 1000000).append(" ms: ").append(sql);
+        if (parameters != null) {
+            buf.append(" parameters:");
+            for (Object parameter : parameters) {
+                buf.append(' ').append(parameter instanceof byte[] ? Convert.toHexString((byte[]) parameter) : parameter);
+            }
+        }
+        Logger.logMessage(buf.toString());
+    }
+
+    private void clear() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long[] getHistogram() {
+        long[] result = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+}
@@ -1,14 +1,40 @@
 package nxt.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class TransactionalDb extends BasicDb {
 
+    public interface TransactionCallback {
+
+        void commit();
+
+        void rollback();
+
+    }
+
+    /**
+     * Writes deferred by a table until the end of the transaction, flushed before the transaction is committed
+     */
+    interface PendingWrites {
+
+        void flush();
+
+        void discard();
+
+    }
+
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
-    private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
+    private final ThreadLocal<Map<String,DbCache<?>>> transactionCaches = new ThreadLocal<>();
+    private final ThreadLocal<Set<TransactionCallback>> transactionCallbacks = new ThreadLocal<>();
+    private final ThreadLocal<Set<PendingWrites>> pendingWrites = new ThreadLocal<>();
 
     public TransactionalDb(DbProperties dbProperties) {
         super(dbProperties);
@@ -20,7 +46,7 @@ public class TransactionalDb extends BasicDb {
         if (con != null) {
             return con;
         }
-        return new DbConnection(super.getConnection());
+        return new DbConnection(super.getConnection(), 0);
     }
 
     public boolean isInTransaction() {
@@ -34,9 +60,11 @@ public class TransactionalDb extends BasicDb {
         try {
             Connection con = getPooledConnection();
             con.setAutoCommit(false);
-            con = new DbConnection(con);
+            con = new DbConnection(con, getStatementCacheSize());
             localConnection.set((DbConnection)con);
-            transactionCaches.set(new HashMap<String, Map<DbKey, Object>>());
+            transactionCaches.set(new HashMap<String,DbCache<?>>());
+            transactionCallbacks.set(new LinkedHashSet<TransactionCallback>());
+            pendingWrites.set(new LinkedHashSet<PendingWrites>());
             return con;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -48,11 +76,17 @@ public class TransactionalDb extends BasicDb {
         if (con == null) {
             throw new IllegalStateException("Not in transaction");
         }
+        flushPendingWrites();
         try {
             con.doCommit();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
+        Set<TransactionCallback> callbacks = transactionCallbacks.get();
+        for (TransactionCallback callback : callbacks) {
+            callback.commit();
+        }
+        callbacks.clear();
     }
 
     public void rollbackTransaction() {
@@ -66,6 +100,8 @@ public class TransactionalDb extends BasicDb {
             throw new RuntimeException(e.toString(), e);
         }
         transactionCaches.get().clear();
+        discardPendingWrites();
+        rollbackCallbacks();
     }
 
     public void endTransaction() {
@@ -76,25 +112,110 @@ public class TransactionalDb extends BasicDb {
         localConnection.set(null);
         transactionCaches.get().clear();
         transactionCaches.set(null);
+        discardPendingWrites();
+        pendingWrites.set(null);
+        rollbackCallbacks();
+        transactionCallbacks.set(null);
         DbUtils.close(con);
     }
 
-    Map<DbKey,Object> getCache(String tableName) {
+    private void rollbackCallbacks() {
+        Set<TransactionCallback> callbacks = transactionCallbacks.get();
+        for (TransactionCallback callback : callbacks) {
+            callback.rollback();
+        }
+        callbacks.clear();
+    }
+
+    /**
+     * Writes the changes deferred by the tables in the current transaction, if any. Must be called before the height
+     * of the blockchain changes inside a transaction, as deferred entities are saved at the current height.
+     */
+    public void flushPendingWrites() {
+        Set<PendingWrites> writes = pendingWrites.get();
+        if (writes == null) {
+            return;
+        }
+        while (!writes.isEmpty()) {
+            PendingWrites pending = writes.iterator().next();
+            writes.remove(pending);
+            pending.flush();
+        }
+    }
+
+    private void discardPendingWrites() {
+        Set<PendingWrites> writes = pendingWrites.get();
+        for (PendingWrites pending : writes) {
+            pending.discard();
+        }
+        writes.clear();
+    }
+
+    // the cache of a table only holds values of the type of its entities
+    @SuppressWarnings("unchecked")
+    <V> DbCache<V> getCache(String tableName, DbKey.Factory<?> dbKeyFactory) {
         if (!isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
-        Map<DbKey,Object> cacheMap = transactionCaches.get().get(tableName);
-        if (cacheMap == null) {
-            cacheMap = new HashMap<>();
-            transactionCaches.get().put(tableName, cacheMap);
+        DbCache<V> cache = (DbCache<V>) transactionCaches.get().get(tableName);
+        if (cache == null) {
+            cache = dbKeyFactory.newCache();
+            transactionCaches.get().put(tableName, cache);
+        }
+        return cache;
+    }
+
+    public void registerCallback(TransactionCallback callback) {
+        if (!isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
         }
-        return cacheMap;
+        transactionCallbacks.get().add(callback);
+    }
+
+    void registerPendingWrites(PendingWrites writes) {
+        if (!isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        pendingWrites.get().add(writes);
     }
 
     private final class DbConnection extends FilteredConnection {
 
-        private DbConnection(Connection con) {
+        private final Map<String,CachedStatement> statementCache;
+
+        private DbConnection(Connection con, final int statementCacheSize) {
             super(con);
+            if (statementCacheSize > 0) {
+                statementCache = new LinkedHashMap<String,CachedStatement>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String,CachedStatement> eldest) {
+                        if (size() > statementCacheSize) {
+                            eldest.getValue().evict();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            } else {
+                statementCache = null;
+            }
+        }
+
+        // statements prepared on the connection of a transaction are kept open and reused until the transaction ends
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            if (statementCache == null) {
+                return super.prepareStatement(sql);
+            }
+            CachedStatement cachedStatement = statementCache.get(sql);
+            if (cachedStatement == null) {
+                cachedStatement = new CachedStatement(super.prepareStatement(sql));
+                statementCache.put(sql, cachedStatement);
+            } else if (cachedStatement.inUse) {
+                return super.prepareStatement(sql);
+            }
+            cachedStatement.inUse = true;
+            return new CachedStatementHandle(cachedStatement);
         }
 
         @Override
@@ -135,6 +256,12 @@ public class TransactionalDb extends BasicDb {
         @Override
         public void close() throws SQLException {
             if (localConnection.get() == null) {
+                if (statementCache != null) {
+                    for (CachedStatement cachedStatement : statementCache.values()) {
+                        cachedStatement.evict();
+                    }
+                    statementCache.clear();
+                }
                 super.close();
             } else if (this != localConnection.get()) {
                 throw new IllegalStateException("Previous connection not committed");
@@ -142,4 +269,68 @@ public class TransactionalDb extends BasicDb {
         }
 
     }
+
+    private static final class CachedStatement {
+
+        private final PreparedStatement stmt;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement stmt) {
+            this.stmt = stmt;
+        }
+
+        private void release() throws SQLException {
+            inUse = false;
+            if (evicted) {
+                stmt.close();
+                return;
+            }
+            try {
+                ResultSet rs = stmt.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+                stmt.clearParameters();
+                stmt.clearBatch();
+            } catch (SQLException e) {
+                evict();
+                throw e;
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                DbUtils.close(stmt);
+            }
+        }
+
+    }
+
+    private static final class CachedStatementHandle extends FilteredPreparedStatement {
+
+        private final CachedStatement cachedStatement;
+        private boolean closed;
+
+        private CachedStatementHandle(CachedStatement cachedStatement) {
+            super(cachedStatement.stmt);
+            this.cachedStatement = cachedStatement;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (!closed) {
+                closed = true;
+                cachedStatement.release();
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || super.isClosed();
+        }
+
+    }
+
 }
@@ -1,5 +1,7 @@
 package nxt.db;
 
+import nxt.Nxt;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -11,6 +13,9 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
 
     private final boolean multiversion;
     protected final DbKey.Factory<T> dbKeyFactory;
+    private final String selectSql;
+    private final String updateLatestSql;
+    final DirtyKeys dirtyKeys;
 
     protected ValuesDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false);
@@ -20,6 +25,10 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         super(table);
         this.dbKeyFactory = dbKeyFactory;
         this.multiversion = multiversion;
+        this.selectSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause()
+                + (multiversion ? " AND latest = TRUE" : "") + " ORDER BY db_id DESC";
+        this.updateLatestSql = "UPDATE " + table + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE";
+        this.dirtyKeys = multiversion ? DirtyKeys.forTable(db, table, dbKeyFactory) : null;
     }
 
     protected abstract V load(Connection con, ResultSet rs) throws SQLException;
@@ -27,24 +36,23 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
     protected abstract void save(Connection con, T t, V v) throws SQLException;
 
     protected void clearCache() {
-        db.getCache(table).clear();
+        db.getCache(table, dbKeyFactory).clear();
     }
 
     public final List<V> get(DbKey dbKey) {
         List<V> values;
         if (db.isInTransaction()) {
-            values = (List<V>) db.getCache(table).get(dbKey);
+            values = db.<List<V>>getCache(table, dbKeyFactory).get(dbKey);
             if (values != null) {
                 return values;
             }
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-             + (multiversion ? " AND latest = TRUE" : "") + " ORDER BY db_id DESC")) {
+             PreparedStatement pstmt = con.prepareStatement(selectSql)) {
             dbKey.setPK(pstmt);
             values = get(con, pstmt);
             if (db.isInTransaction()) {
-                db.getCache(table).put(dbKey, values);
+                db.getCache(table, dbKeyFactory).put(dbKey, values);
             }
             return values;
         } catch (SQLException e) {
@@ -71,11 +79,13 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
-        db.getCache(table).put(dbKey, values);
+        db.getCache(table, dbKeyFactory).put(dbKey, values);
+        if (dirtyKeys != null) {
+            dirtyKeys.add(dbKey, Nxt.getBlockchain().getHeight());
+        }
         try (Connection con = db.getConnection()) {
             if (multiversion) {
-                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE")) {
+                try (PreparedStatement pstmt = con.prepareStatement(updateLatestSql)) {
                     dbKey.setPK(pstmt);
                     pstmt.executeUpdate();
                 }
@@ -91,13 +101,16 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
     @Override
     public void rollback(int height) {
         super.rollback(height);
-        db.getCache(table).clear();
+        db.getCache(table, dbKeyFactory).clear();
     }
 
     @Override
     public final void truncate() {
         super.truncate();
-        db.getCache(table).clear();
+        db.getCache(table, dbKeyFactory).clear();
+        if (dirtyKeys != null) {
+            dirtyKeys.truncate();
+        }
     }
 
 }
@@ -7,18 +7,62 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
 public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
 
+    private final String selectCountBelowHeightSql;
+    private final String deleteSql;
+    private final String restoreLatestSql;
+    private final String deleteAboveHeightSql;
+
     protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
-        super(table, dbKeyFactory, true);
+        this(table, dbKeyFactory, false);
+    }
+
+    protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean cached) {
+        this(table, dbKeyFactory, cached, false);
+    }
+
+    /**
+     * Tables created with intervalVersioned set to true must have a nullable valid_until INT column, preferably indexed.
+     * It is set to the height at which a version stopped being the latest one, so that the version of an entity at a
+     * given height is found with a range predicate on height and valid_until, instead of a self-join.
+     */
+    protected VersionedEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory, boolean cached, boolean intervalVersioned) {
+        super(table, dbKeyFactory, true, cached, intervalVersioned);
+        this.selectCountBelowHeightSql = "SELECT COUNT(*) AS count FROM " + table + dbKeyFactory.getPKClause() + " AND height < ?";
+        this.deleteSql = "DELETE FROM " + table + dbKeyFactory.getPKClause();
+        this.restoreLatestSql = "UPDATE " + table + " SET latest = TRUE, valid_until = NULL WHERE valid_until > ? AND height <= ?";
+        this.deleteAboveHeightSql = "DELETE FROM " + table + " WHERE height > ?";
     }
 
     @Override
     public void rollback(int height) {
-        rollback(db, table, height, dbKeyFactory);
+        flushPendingWrites();
+        if (intervalVersioned) {
+            rollbackIntervals(height);
+        } else {
+            rollback(db, table, height, dbKeyFactory);
+        }
+        clearCache();
+    }
+
+    // the versions which stopped being the latest above height are exactly those to be restored
+    private void rollbackIntervals(int height) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSetLatest = con.prepareStatement(restoreLatestSql);
+             PreparedStatement pstmtDelete = con.prepareStatement(deleteAboveHeightSql)) {
+            pstmtSetLatest.setInt(1, height);
+            pstmtSetLatest.setInt(2, height);
+            pstmtSetLatest.executeUpdate();
+            pstmtDelete.setInt(1, height);
+            pstmtDelete.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
     }
 
     public final boolean delete(T t) {
@@ -28,25 +72,28 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        flushPendingWrites();
         DbKey dbKey = dbKeyFactory.newKey(t);
+        int height = Nxt.getBlockchain().getHeight();
         try (Connection con = db.getConnection();
-             PreparedStatement pstmtCount = con.prepareStatement("SELECT COUNT(*) AS count FROM " + table + dbKeyFactory.getPKClause()
-                + " AND height < ?")) {
+             PreparedStatement pstmtCount = con.prepareStatement(selectCountBelowHeightSql)) {
             int i = dbKey.setPK(pstmtCount);
-            pstmtCount.setInt(i, Nxt.getBlockchain().getHeight());
+            pstmtCount.setInt(i, height);
             try (ResultSet rs = pstmtCount.executeQuery()) {
                 rs.next();
                 if (rs.getInt("count") > 0) {
-                    try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                            + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
-                        dbKey.setPK(pstmt);
+                    try (PreparedStatement pstmt = con.prepareStatement(updateLatestSql)) {
+                        setUpdateLatestParameters(pstmt, dbKey, height);
                         pstmt.executeUpdate();
                         save(con, t);
                         pstmt.executeUpdate(); // delete after the save
                     }
+                    if (dirtyKeys != null) {
+                        dirtyKeys.add(dbKey, height);
+                    }
                     return true;
                 } else {
-                    try (PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + dbKeyFactory.getPKClause())) {
+                    try (PreparedStatement pstmtDelete = con.prepareStatement(deleteSql)) {
                         dbKey.setPK(pstmtDelete);
                         return pstmtDelete.executeUpdate() > 0;
                     }
@@ -55,57 +102,53 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         } finally {
-            db.getCache(table).remove(dbKey);
+            db.getCache(table, dbKeyFactory).remove(dbKey);
+            entityCacheUpdate(dbKey, null);
         }
     }
 
     @Override
     public void trim(int height) {
-        trim(db, table, height, dbKeyFactory);
+        flushPendingWrites();
+        if (dirtyKeys != null) {
+            dirtyKeys.trim(height);
+        } else {
+            trim(db, table, height, dbKeyFactory);
+        }
+    }
+
+    @Override
+    public final int trimPending(int maxKeys) {
+        if (dirtyKeys == null) {
+            return 0;
+        }
+        flushPendingWrites();
+        return dirtyKeys.trimPending(maxKeys);
     }
 
     static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        // restore the latest flag on the last remaining version of every key modified above height with one statement,
+        // instead of looking up and updating each such key separately
         try (Connection con = db.getConnection();
-             PreparedStatement pstmtSelectToDelete = con.prepareStatement("SELECT DISTINCT " + dbKeyFactory.getPKColumns()
-                     + " FROM " + table + " WHERE height > ?");
+             PreparedStatement pstmtSetLatest = con.prepareStatement("MERGE INTO " + table + " (db_id, latest) KEY (db_id) "
+                     + "SELECT b.db_id, TRUE FROM (SELECT *, (SELECT MAX(b.height) FROM " + table + " AS b WHERE "
+                     + dbKeyFactory.getSelfJoinClause() + " AND b.height <= ?) AS max_height FROM (SELECT DISTINCT "
+                     + dbKeyFactory.getPKColumns() + " FROM " + table + " WHERE height > ?) AS a) AS a, " + table + " AS b WHERE "
+                     + dbKeyFactory.getSelfJoinClause() + " AND b.height = a.max_height");
              PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table
-                     + " WHERE height > ?");
-             PreparedStatement pstmtSetLatest = con.prepareStatement("UPDATE " + table
-                     + " SET latest = TRUE " + dbKeyFactory.getPKClause() + " AND height ="
-                     + " (SELECT MAX(height) FROM " + table + dbKeyFactory.getPKClause() + ")")) {
-            pstmtSelectToDelete.setInt(1, height);
-            List<DbKey> dbKeys = new ArrayList<>();
-            try (ResultSet rs = pstmtSelectToDelete.executeQuery()) {
-                while (rs.next()) {
-                    dbKeys.add(dbKeyFactory.newKey(rs));
-                }
-            }
-            /*
-            if (dbKeys.size() > 0 && Logger.isDebugEnabled()) {
-                Logger.logDebugMessage(String.format("rollback table %s found %d records to update to latest", table, dbKeys.size()));
-            }
-            */
+                     + " WHERE height > ?")) {
+            pstmtSetLatest.setInt(1, height);
+            pstmtSetLatest.setInt(2, height);
+            pstmtSetLatest.executeUpdate();
             pstmtDelete.setInt(1, height);
-            int deletedRecordsCount = pstmtDelete.executeUpdate();
-            /*
-            if (deletedRecordsCount > 0 && Logger.isDebugEnabled()) {
-                Logger.logDebugMessage(String.format("rollback table %s deleting %d records", table, deletedRecordsCount));
-            }
-            */
-            for (DbKey dbKey : dbKeys) {
-                int i = 1;
-                i = dbKey.setPK(pstmtSetLatest, i);
-                i = dbKey.setPK(pstmtSetLatest, i);
-                pstmtSetLatest.executeUpdate();
-                //Db.getCache(table).remove(dbKey);
-            }
+            pstmtDelete.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
-        db.getCache(table).clear();
+        db.getCache(table, dbKeyFactory).clear();
     }
 
     static void trim(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
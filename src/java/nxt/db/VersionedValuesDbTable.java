@@ -13,7 +13,16 @@ public abstract class VersionedValuesDbTable<T, V> extends ValuesDbTable<T, V> {
 
     @Override
     public final void trim(int height) {
-        VersionedEntityDbTable.trim(db, table, height, dbKeyFactory);
+        if (dirtyKeys != null) {
+            dirtyKeys.trim(height);
+        } else {
+            VersionedEntityDbTable.trim(db, table, height, dbKeyFactory);
+        }
+    }
+
+    @Override
+    public final int trimPending(int maxKeys) {
+        return dirtyKeys != null ? dirtyKeys.trimPending(maxKeys) : 0;
     }
 
 }
@@ -226,7 +226,14 @@ public final class APIServlet extends HttpServlet {
         map.put("fullReset", FullReset.instance);
         map.put("popOff", PopOff.instance);
         map.put("scan", Scan.instance);
+        map.put("exportSnapshot", ExportSnapshot.instance);
+        map.put("importSnapshot", ImportSnapshot.instance);
+        map.put("exportChain", ExportChain.instance);
+        map.put("importChain", ImportChain.instance);
         map.put("luceneReindex", LuceneReindex.instance);
+        map.put("getEntityCacheStats", GetEntityCacheStats.instance);
+        map.put("getDbStatementStats", GetDbStatementStats.instance);
+        map.put("getListenerStats", GetListenerStats.instance);
         map.put("addPeer", AddPeer.instance);
         map.put("blacklistPeer", BlacklistPeer.instance);
         
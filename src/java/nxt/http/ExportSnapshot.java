@@ -0,0 +1,55 @@
+package nxt.http;
+
+import nxt.Nxt;
+import nxt.Snapshot;
+import nxt.util.Convert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+
+public final class ExportSnapshot extends APIServlet.APIRequestHandler {
+
+    static final ExportSnapshot instance = new ExportSnapshot();
+
+    private ExportSnapshot() {
+        super(new APITag[] {APITag.DEBUG}, "file", "height");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONObject response = new JSONObject();
+        String file = Convert.emptyToNull(req.getParameter("file"));
+        if (file == null) {
+            response.put("error", "missing file");
+            return response;
+        }
+        int height = Nxt.getBlockchain().getHeight();
+        try {
+            height = Integer.parseInt(req.getParameter("height"));
+        } catch (NumberFormatException ignore) {}
+        try {
+            long start = System.currentTimeMillis();
+            Snapshot.exportSnapshot(height, new File(file));
+            response.put("done", true);
+            response.put("height", height);
+            response.put("block", Nxt.getBlockchain().getBlockAtHeight(height).getStringId());
+            response.put("exportTime", (System.currentTimeMillis() - start) / 1000);
+        } catch (RuntimeException e) {
+            response.put("error", e.toString());
+        }
+        return response;
+    }
+
+    @Override
+    final boolean requirePost() {
+        return true;
+    }
+
+    @Override
+    boolean requirePassword() {
+        return true;
+    }
+
+}
@@ -0,0 +1,78 @@
+package nxt.http;
+
+import nxt.db.StatementStats;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class GetDbStatementStats extends APIServlet.APIRequestHandler {
+
+    static final GetDbStatementStats instance = new GetDbStatementStats();
+
+    private GetDbStatementStats() {
+        super(new APITag[] {APITag.DEBUG}, "reset");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        List<StatementStats> statementStats = new ArrayList<>(StatementStats.getAll());
+        // the counters keep changing, sort on a copy of the totals taken before
+        final Map<StatementStats,Long> totalNanos = new HashMap<>();
+        for (StatementStats stats : statementStats) {
+            totalNanos.put(stats, stats.getTotalNanos());
+        }
+        Collections.sort(statementStats, new Comparator<StatementStats>() {
+            @Override
+            public int compare(StatementStats o1, StatementStats o2) {
+                return Long.compare(totalNanos.get(o2), totalNanos.get(o1));
+            }
+        });
+        JSONObject response = new JSONObject();
+        JSONArray statements = new JSONArray();
+        for (StatementStats stats : statementStats) {
+            // read once, a concurrent reset must not change the count between the check and the division
+            long executions = stats.getCount();
+            if (executions == 0) {
+                continue;
+            }
+            long nanos = stats.getTotalNanos();
+            JSONObject json = new JSONObject();
+            json.put("sql", stats.getSql());
+            json.put("count", executions);
+            json.put("totalMillis", nanos / 1000000);
+            json.put("averageMicros", nanos / 1000 / executions);
+            json.put("maxMicros", stats.getMaxNanos() / 1000);
+            // the count of executions which took less than 2^i microseconds, the last entry counts all the longer ones
+            JSONArray histogram = new JSONArray();
+            for (long count : stats.getHistogram()) {
+                histogram.add(count);
+            }
+            json.put("histogram", histogram);
+            statements.add(json);
+        }
+        response.put("statements", statements);
+        if ("true".equalsIgnoreCase(req.getParameter("reset"))) {
+            StatementStats.reset();
+        }
+        return response;
+    }
+
+    @Override
+    final boolean requirePost() {
+        return true;
+    }
+
+    @Override
+    boolean requirePassword() {
+        return true;
+    }
+
+}
@@ -0,0 +1,40 @@
+package nxt.http;
+
+import nxt.db.EntityCache;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+public final class GetEntityCacheStats extends APIServlet.APIRequestHandler {
+
+    static final GetEntityCacheStats instance = new GetEntityCacheStats();
+
+    private GetEntityCacheStats() {
+        super(new APITag[] {APITag.DEBUG});
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONObject response = new JSONObject();
+        JSONArray caches = new JSONArray();
+        for (EntityCache entityCache : EntityCache.getAll()) {
+            JSONObject json = new JSONObject();
+            json.put("table", entityCache.getTable());
+            json.put("size", entityCache.getSize());
+            json.put("maxSize", entityCache.getMaxSize());
+            json.put("hits", entityCache.getHits());
+            json.put("misses", entityCache.getMisses());
+            caches.add(json);
+        }
+        response.put("caches", caches);
+        return response;
+    }
+
+    @Override
+    boolean requirePassword() {
+        return true;
+    }
+
+}
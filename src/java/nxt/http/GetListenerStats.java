@@ -0,0 +1,78 @@
+package nxt.http;
+
+import nxt.util.ListenerStats;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class GetListenerStats extends APIServlet.APIRequestHandler {
+
+    static final GetListenerStats instance = new GetListenerStats();
+
+    private GetListenerStats() {
+        super(new APITag[] {APITag.DEBUG}, "reset");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        List<ListenerStats> listenerStats = new ArrayList<>(ListenerStats.getAll());
+        // the counters keep changing, sort on a copy of the totals taken before
+        final Map<ListenerStats,Long> totalNanos = new HashMap<>();
+        for (ListenerStats stats : listenerStats) {
+            totalNanos.put(stats, stats.getTotalNanos());
+        }
+        Collections.sort(listenerStats, new Comparator<ListenerStats>() {
+            @Override
+            public int compare(ListenerStats o1, ListenerStats o2) {
+                return Long.compare(totalNanos.get(o2), totalNanos.get(o1));
+            }
+        });
+        JSONObject response = new JSONObject();
+        JSONArray listeners = new JSONArray();
+        for (ListenerStats stats : listenerStats) {
+            // read once, a concurrent reset must not change the count between the check and the division
+            long count = stats.getCount();
+            if (count == 0 && stats.getQueued() == 0) {
+                continue;
+            }
+            long nanos = stats.getTotalNanos();
+            JSONObject json = new JSONObject();
+            json.put("listener", stats.getName());
+            json.put("async", stats.isAsync());
+            json.put("count", count);
+            json.put("totalMillis", nanos / 1000000);
+            json.put("averageMicros", count == 0 ? 0 : nanos / 1000 / count);
+            json.put("maxMicros", stats.getMaxNanos() / 1000);
+            if (stats.isAsync()) {
+                json.put("queued", stats.getQueued());
+                json.put("queueFullCount", stats.getQueueFullCount());
+                json.put("droppedCount", stats.getDroppedCount());
+            }
+            listeners.add(json);
+        }
+        response.put("listeners", listeners);
+        if ("true".equalsIgnoreCase(req.getParameter("reset"))) {
+            ListenerStats.reset();
+        }
+        return response;
+    }
+
+    @Override
+    final boolean requirePost() {
+        return true;
+    }
+
+    @Override
+    boolean requirePassword() {
+        return true;
+    }
+
+}
@@ -2,7 +2,6 @@ package nxt.http;
 
 import nxt.Nxt;
 import nxt.Transaction;
-import nxt.db.DbIterator;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -35,14 +34,9 @@ public final class GetUnconfirmedTransactionIds extends APIServlet.APIRequestHan
         }
 
         JSONArray transactionIds = new JSONArray();
-        try (DbIterator<? extends Transaction> transactionsIterator = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-            while (transactionsIterator.hasNext()) {
-                Transaction transaction = transactionsIterator.next();
-                if (accountId != 0 && !(accountId == transaction.getSenderId() || accountId == transaction.getRecipientId())) {
-                    continue;
-                }
-                transactionIds.add(transaction.getStringId());
-            }
+        for (Transaction transaction : accountId == 0 ? Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()
+                : Nxt.getTransactionProcessor().getUnconfirmedTransactions(accountId)) {
+            transactionIds.add(transaction.getStringId());
         }
 
         JSONObject response = new JSONObject();
@@ -2,7 +2,6 @@ package nxt.http;
 
 import nxt.Nxt;
 import nxt.Transaction;
-import nxt.db.DbIterator;
 import nxt.util.Convert;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -35,14 +34,9 @@ public final class GetUnconfirmedTransactions extends APIServlet.APIRequestHandl
         }
 
         JSONArray transactions = new JSONArray();
-        try (DbIterator<? extends Transaction> transactionsIterator = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-            while (transactionsIterator.hasNext()) {
-                Transaction transaction = transactionsIterator.next();
-                if (accountId != 0 && !(accountId == transaction.getSenderId() || accountId == transaction.getRecipientId())) {
-                    continue;
-                }
-                transactions.add(JSONData.unconfirmedTransaction(transaction));
-            }
+        for (Transaction transaction : accountId == 0 ? Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()
+                : Nxt.getTransactionProcessor().getUnconfirmedTransactions(accountId)) {
+            transactions.add(JSONData.unconfirmedTransaction(transaction));
         }
 
         JSONObject response = new JSONObject();
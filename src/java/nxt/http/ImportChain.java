@@ -0,0 +1,55 @@
+package nxt.http;
+
+import nxt.ChainFile;
+import nxt.Nxt;
+import nxt.util.Convert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+
+public final class ImportChain extends APIServlet.APIRequestHandler {
+
+    static final ImportChain instance = new ImportChain();
+
+    private ImportChain() {
+        super(new APITag[] {APITag.DEBUG}, "file", "height");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONObject response = new JSONObject();
+        String file = Convert.emptyToNull(req.getParameter("file"));
+        if (file == null) {
+            response.put("error", "missing file");
+            return response;
+        }
+        int height = 0;
+        try {
+            height = Integer.parseInt(req.getParameter("height"));
+        } catch (NumberFormatException ignore) {}
+        try {
+            long start = System.currentTimeMillis();
+            ChainFile.importChain(new File(file), height);
+            response.put("done", true);
+            response.put("importTime", (System.currentTimeMillis() - start) / 1000);
+        } catch (RuntimeException e) {
+            response.put("error", e.toString());
+        }
+        response.put("height", Nxt.getBlockchain().getHeight());
+        response.put("block", Nxt.getBlockchain().getLastBlock().getStringId());
+        return response;
+    }
+
+    @Override
+    final boolean requirePost() {
+        return true;
+    }
+
+    @Override
+    boolean requirePassword() {
+        return true;
+    }
+
+}
@@ -0,0 +1,57 @@
+package nxt.http;
+
+import nxt.Nxt;
+import nxt.Snapshot;
+import nxt.util.Convert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+
+public final class ImportSnapshot extends APIServlet.APIRequestHandler {
+
+    static final ImportSnapshot instance = new ImportSnapshot();
+
+    private ImportSnapshot() {
+        super(new APITag[] {APITag.DEBUG}, "file", "block");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONObject response = new JSONObject();
+        String file = Convert.emptyToNull(req.getParameter("file"));
+        if (file == null) {
+            response.put("error", "missing file");
+            return response;
+        }
+        String blockValue = Convert.emptyToNull(req.getParameter("block"));
+        if (blockValue == null) {
+            response.put("error", "missing block");
+            return response;
+        }
+        try {
+            long blockId = Convert.parseUnsignedLong(blockValue);
+            long start = System.currentTimeMillis();
+            Snapshot.importSnapshot(new File(file), blockId);
+            response.put("done", true);
+            response.put("height", Nxt.getBlockchain().getHeight());
+            response.put("block", Nxt.getBlockchain().getLastBlock().getStringId());
+            response.put("importTime", (System.currentTimeMillis() - start) / 1000);
+        } catch (RuntimeException e) {
+            response.put("error", e.toString());
+        }
+        return response;
+    }
+
+    @Override
+    final boolean requirePost() {
+        return true;
+    }
+
+    @Override
+    boolean requirePassword() {
+        return true;
+    }
+
+}
@@ -43,17 +43,13 @@ public final class GetRecentTransactions extends RPCCall {
             /* Unconfirmed transactions are always included */
            
             try (
-                DbIterator<? extends Transaction> iterator_unconfirmed = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions();
                 DbIterator<? extends Transaction> iterator = MofoQueries.getRecentTransactions(accountIds, timestamp, filters, COUNT);
             ) {
                 try {
-                    System.out.println("Start getAllUnconfirmedTransactions");
-                    while (iterator_unconfirmed != null && iterator_unconfirmed.hasNext()) {
-                        Transaction transaction = iterator_unconfirmed.next();
-                        for (Long id : accountIds) {
-                            if (id.equals(Long.valueOf(transaction.getSenderId())) || id.equals(Long.valueOf(transaction.getRecipientId()))) {
+                    for (Long id : accountIds) {
+                        for (Transaction transaction : Nxt.getTransactionProcessor().getUnconfirmedTransactions(id)) {
+                            if (!unconfirmed_transactions.contains(transaction)) {
                                 unconfirmed_transactions.add(transaction);
-                                break;
                             }
                         }
                     }
@@ -14,6 +14,7 @@ import nxt.Transaction;
 import nxt.TransactionProcessor;
 import nxt.util.Convert;
 import nxt.util.Listener;
+import nxt.util.Listeners;
 
 
 public final class EventForwarder {
@@ -69,9 +70,61 @@ public final class EventForwarder {
         return map;
     }
       
+    /**
+     * A pushed block with the trades it made, which are taken when the block is pushed, as the cache is cleared for the
+     * next block before the asynchronous listener runs
+     */
+    private static final class PushedBlock {
+
+        private final Block block;
+        private final List<Trade> trades;
+
+        private PushedBlock(Block block, List<Trade> trades) {
+            this.block = block;
+            this.trades = trades;
+        }
+
+    }
+
+    private static final Listener<PushedBlock> pushedBlockForwarder = Listeners.async(new Listener<PushedBlock>() {
+        @Override
+        public void notify(PushedBlock pushedBlock) {
+            Block block = pushedBlock.block;
+            List<Trade> trades = pushedBlock.trades;
+
+            if ((Nxt.getEpochTime() - block.getTimestamp()) < ONE_DAY_SECONDS) {
+                MofoSocketServer.notifyBlock("BLOCKPUSHEDNEW", block);
+                
+                if (trades != null) {
+                    MofoSocketServer.notifyTrades("ADDEDTRADES", trades);
+                }                    
+            }
+          
+            MofoSocketServer.notifyBlockMinimal("BLOCKPUSHED", block);
+            
+            String topic = "BLOCKPUSHED-" + Convert.toUnsignedLong(block.getGeneratorId());
+            MofoSocketServer.notifyBlock(topic, block);              
+            
+            if (trades != null) {
+              
+                Map<Long, List<Trade>> grouped = groupTradesAccount(trades);
+                for (Long accountId : grouped.keySet()) {
+                    topic = "ADDEDTRADES-" + Convert.toUnsignedLong(accountId);
+                    MofoSocketServer.notifyTrades(topic, grouped.get(accountId));
+                }
+                
+                grouped = groupTradesAsset(trades);
+                for (Long assetId : grouped.keySet()) {
+                    topic = "ADDEDTRADES*" + Convert.toUnsignedLong(assetId);
+                    MofoSocketServer.notifyTrades(topic, grouped.get(assetId));
+                }
+            }
+        }
+    });
+
     static {
       
-        Nxt.getTransactionProcessor().addListener(new Listener<List<? extends Transaction>>() {
+        Nxt.getTransactionProcessor().addListener(Listeners.async(new Listener<List<? extends Transaction>>() {
             @Override
             public void notify(List<? extends Transaction> _transactions) {
                 if ( ! _transactions.isEmpty() && ! Nxt.getBlockchainProcessor().isScanning()) {                  
@@ -84,9 +137,9 @@ public final class EventForwarder {
                     }
                 }
             }
-        }, TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+        }), TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
   
-        Nxt.getTransactionProcessor().addListener(new Listener<List<? extends Transaction>>() {
+        Nxt.getTransactionProcessor().addListener(Listeners.async(new Listener<List<? extends Transaction>>() {
             @Override
             public void notify(List<? extends Transaction> _transactions) {
                 if ( ! _transactions.isEmpty() && ! Nxt.getBlockchainProcessor().isScanning()) {                
@@ -99,9 +152,9 @@ public final class EventForwarder {
                     }
                 }              
             }
-        }, TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
+        }), TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
   
-        Nxt.getTransactionProcessor().addListener(new Listener<List<? extends Transaction>>() {
+        Nxt.getTransactionProcessor().addListener(Listeners.async(new Listener<List<? extends Transaction>>() {
             @Override
             public void notify(List<? extends Transaction> _transactions) {
                 if ( ! _transactions.isEmpty() && ! Nxt.getBlockchainProcessor().isScanning()) {            
@@ -114,9 +167,9 @@ public final class EventForwarder {
                     }
                 }
             }
-        }, TransactionProcessor.Event.ADDED_CONFIRMED_TRANSACTIONS);
+        }), TransactionProcessor.Event.ADDED_CONFIRMED_TRANSACTIONS);
     
-        Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
+        Nxt.getBlockchainProcessor().addListener(Listeners.async(new Listener<Block>() {
             @Override
             public void notify(Block block) {              
                 if ((Nxt.getEpochTime() - block.getTimestamp()) < ONE_DAY_SECONDS) {
@@ -128,7 +181,7 @@ public final class EventForwarder {
                 String topic = "BLOCKPOPPED-" + Convert.toUnsignedLong(block.getGeneratorId());
                 MofoSocketServer.notifyBlock(topic, block);
             }
-        }, BlockchainProcessor.Event.BLOCK_POPPED);        
+        }), BlockchainProcessor.Event.BLOCK_POPPED);        
     
         Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
             @Override
@@ -144,37 +197,12 @@ public final class EventForwarder {
             }
         }, Trade.Event.TRADE);
   
+        // the trades of the block are handed over to the asynchronous listener with the block itself
         Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
             @Override
             public void notify(Block block) {
-              
-                if ((Nxt.getEpochTime() - block.getTimestamp()) < ONE_DAY_SECONDS) {
-                    MofoSocketServer.notifyBlock("BLOCKPUSHEDNEW", block);
-                    
-                    if ( ! currentBlockTradeCache.isEmpty()) {
-                        MofoSocketServer.notifyTrades("ADDEDTRADES", currentBlockTradeCache);
-                    }                    
-                }
-              
-                MofoSocketServer.notifyBlockMinimal("BLOCKPUSHED", block);
-                
-                String topic = "BLOCKPUSHED-" + Convert.toUnsignedLong(block.getGeneratorId());
-                MofoSocketServer.notifyBlock(topic, block);              
-                
-                if ( ! currentBlockTradeCache.isEmpty()) {
-                  
-                    Map<Long, List<Trade>> grouped = groupTradesAccount(currentBlockTradeCache);
-                    for (Long accountId : grouped.keySet()) {
-                        topic = "ADDEDTRADES-" + Convert.toUnsignedLong(accountId);
-                        MofoSocketServer.notifyTrades(topic, grouped.get(accountId));
-                    }
-                    
-                    grouped = groupTradesAsset(currentBlockTradeCache);
-                    for (Long assetId : grouped.keySet()) {
-                        topic = "ADDEDTRADES*" + Convert.toUnsignedLong(assetId);
-                        MofoSocketServer.notifyTrades(topic, grouped.get(assetId));
-                    }
-                }
+                pushedBlockForwarder.notify(new PushedBlock(block,
+                        currentBlockTradeCache.isEmpty() ? null : new ArrayList<>(currentBlockTradeCache)));
             }
         }, BlockchainProcessor.Event.BLOCK_PUSHED);
     }
@@ -3,6 +3,7 @@ package nxt.peer;
 import nxt.Block;
 import nxt.Nxt;
 import nxt.util.Convert;
+import nxt.util.JSON;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -23,10 +24,14 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
         JSONArray nextBlocksArray = new JSONArray();
 
         long blockId = Convert.parseUnsignedLong((String) request.get("blockId"));
-        List<? extends Block> blocks = Nxt.getBlockchain().getBlocksAfter(blockId, 720);
+        int limit = 720;
+        if (request.get("limit") instanceof Long) {
+            limit = (int) Math.max(1, Math.min(limit, (Long) request.get("limit")));
+        }
+        List<? extends Block> blocks = Nxt.getBlockchain().getBlocksAfter(blockId, limit);
 
         for (Block block : blocks) {
-            nextBlocksArray.add(block.getJSONObject());
+            nextBlocksArray.add(JSON.prepare(block.getJSONString()));
         }
         response.put("nextBlocks", nextBlocksArray);
 
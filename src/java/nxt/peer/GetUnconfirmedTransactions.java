@@ -2,7 +2,7 @@ package nxt.peer;
 
 import nxt.Nxt;
 import nxt.Transaction;
-import nxt.db.DbIterator;
+import nxt.util.JSON;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -20,11 +20,8 @@ final class GetUnconfirmedTransactions extends PeerServlet.PeerRequestHandler {
         JSONObject response = new JSONObject();
 
         JSONArray transactionsData = new JSONArray();
-        try (DbIterator<? extends Transaction> transactions = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-            while (transactions.hasNext()) {
-                Transaction transaction = transactions.next();
-                transactionsData.add(transaction.getJSONObject());
-            }
+        for (Transaction transaction : Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
+            transactionsData.add(JSON.prepare(transaction.getJSONString()));
         }
         response.put("unconfirmedTransactions", transactionsData);
 
@@ -720,7 +720,7 @@ public final class Peers {
         JSONObject request = new JSONObject();
         JSONArray transactionsData = new JSONArray();
         for (Transaction transaction : transactions) {
-            transactionsData.add(transaction.getJSONObject());
+            transactionsData.add(JSON.prepare(transaction.getJSONString()));
         }
         request.put("requestType", "processTransactions");
         request.put("transactions", transactionsData);
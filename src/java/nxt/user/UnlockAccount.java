@@ -83,41 +83,38 @@ public final class UnlockAccount extends UserServlet.UserRequestHandler {
 
             JSONArray myTransactions = new JSONArray();
             byte[] accountPublicKey = account.getPublicKey();
-            try (DbIterator<? extends Transaction> transactions = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-                while (transactions.hasNext()) {
-                    Transaction transaction = transactions.next();
-                    if (Arrays.equals(transaction.getSenderPublicKey(), accountPublicKey)) {
-
-                        JSONObject myTransaction = new JSONObject();
-                        myTransaction.put("index", Users.getIndex(transaction));
-                        myTransaction.put("transactionTimestamp", transaction.getTimestamp());
-                        myTransaction.put("deadline", transaction.getDeadline());
-                        myTransaction.put("account", Convert.toUnsignedLong(transaction.getRecipientId()));
-                        myTransaction.put("sentAmountNQT", transaction.getAmountNQT());
-                        if (accountId == transaction.getRecipientId()) {
-                            myTransaction.put("receivedAmountNQT", transaction.getAmountNQT());
-                        }
-                        myTransaction.put("feeNQT", transaction.getFeeNQT());
-                        myTransaction.put("numberOfConfirmations", -1);
-                        myTransaction.put("id", transaction.getStringId());
+            for (Transaction transaction : Nxt.getTransactionProcessor().getUnconfirmedTransactions(accountId)) {
+                if (Arrays.equals(transaction.getSenderPublicKey(), accountPublicKey)) {
+
+                    JSONObject myTransaction = new JSONObject();
+                    myTransaction.put("index", Users.getIndex(transaction));
+                    myTransaction.put("transactionTimestamp", transaction.getTimestamp());
+                    myTransaction.put("deadline", transaction.getDeadline());
+                    myTransaction.put("account", Convert.toUnsignedLong(transaction.getRecipientId()));
+                    myTransaction.put("sentAmountNQT", transaction.getAmountNQT());
+                    if (accountId == transaction.getRecipientId()) {
+                        myTransaction.put("receivedAmountNQT", transaction.getAmountNQT());
+                    }
+                    myTransaction.put("feeNQT", transaction.getFeeNQT());
+                    myTransaction.put("numberOfConfirmations", -1);
+                    myTransaction.put("id", transaction.getStringId());
 
-                        myTransactions.add(myTransaction);
+                    myTransactions.add(myTransaction);
 
-                    } else if (accountId == transaction.getRecipientId()) {
+                } else if (accountId == transaction.getRecipientId()) {
 
-                        JSONObject myTransaction = new JSONObject();
-                        myTransaction.put("index", Users.getIndex(transaction));
-                        myTransaction.put("transactionTimestamp", transaction.getTimestamp());
-                        myTransaction.put("deadline", transaction.getDeadline());
-                        myTransaction.put("account", Convert.toUnsignedLong(transaction.getSenderId()));
-                        myTransaction.put("receivedAmountNQT", transaction.getAmountNQT());
-                        myTransaction.put("feeNQT", transaction.getFeeNQT());
-                        myTransaction.put("numberOfConfirmations", -1);
-                        myTransaction.put("id", transaction.getStringId());
+                    JSONObject myTransaction = new JSONObject();
+                    myTransaction.put("index", Users.getIndex(transaction));
+                    myTransaction.put("transactionTimestamp", transaction.getTimestamp());
+                    myTransaction.put("deadline", transaction.getDeadline());
+                    myTransaction.put("account", Convert.toUnsignedLong(transaction.getSenderId()));
+                    myTransaction.put("receivedAmountNQT", transaction.getAmountNQT());
+                    myTransaction.put("feeNQT", transaction.getFeeNQT());
+                    myTransaction.put("numberOfConfirmations", -1);
+                    myTransaction.put("id", transaction.getStringId());
 
-                        myTransactions.add(myTransaction);
+                    myTransactions.add(myTransaction);
 
-                    }
                 }
             }
 
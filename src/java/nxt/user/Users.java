@@ -12,6 +12,7 @@ import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
 import nxt.util.Listener;
+import nxt.util.Listeners;
 import nxt.util.Logger;
 import nxt.util.ThreadPool;
 import org.eclipse.jetty.server.HttpConfiguration;
@@ -382,7 +383,7 @@ public final class Users {
                 }
             }, Peers.Event.NEW_PEER);
 
-            Nxt.getTransactionProcessor().addListener(new Listener<List<? extends Transaction>>() {
+            Nxt.getTransactionProcessor().addListener(Listeners.async(new Listener<List<? extends Transaction>>() {
                 @Override
                 public void notify(List<? extends Transaction> transactions) {
                     JSONObject response = new JSONObject();
@@ -395,9 +396,9 @@ public final class Users {
                     response.put("removedUnconfirmedTransactions", removedUnconfirmedTransactions);
                     Users.sendNewDataToAll(response);
                 }
-            }, TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+            }), TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
 
-            Nxt.getTransactionProcessor().addListener(new Listener<List<? extends Transaction>>() {
+            Nxt.getTransactionProcessor().addListener(Listeners.async(new Listener<List<? extends Transaction>>() {
                 @Override
                 public void notify(List<? extends Transaction> transactions) {
                     JSONObject response = new JSONObject();
@@ -417,9 +418,9 @@ public final class Users {
                     response.put("addedUnconfirmedTransactions", addedUnconfirmedTransactions);
                     Users.sendNewDataToAll(response);
                 }
-            }, TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
+            }), TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
 
-            Nxt.getTransactionProcessor().addListener(new Listener<List<? extends Transaction>>() {
+            Nxt.getTransactionProcessor().addListener(Listeners.async(new Listener<List<? extends Transaction>>() {
                 @Override
                 public void notify(List<? extends Transaction> transactions) {
                     JSONObject response = new JSONObject();
@@ -439,9 +440,9 @@ public final class Users {
                     response.put("addedConfirmedTransactions", addedConfirmedTransactions);
                     Users.sendNewDataToAll(response);
                 }
-            }, TransactionProcessor.Event.ADDED_CONFIRMED_TRANSACTIONS);
+            }), TransactionProcessor.Event.ADDED_CONFIRMED_TRANSACTIONS);
 
-            Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
+            Nxt.getBlockchainProcessor().addListener(Listeners.async(new Listener<Block>() {
                 @Override
                 public void notify(Block block) {
                     JSONObject response = new JSONObject();
@@ -462,9 +463,9 @@ public final class Users {
                     response.put("addedOrphanedBlocks", addedOrphanedBlocks);
                     Users.sendNewDataToAll(response);
                 }
-            }, BlockchainProcessor.Event.BLOCK_POPPED);
+            }), BlockchainProcessor.Event.BLOCK_POPPED);
 
-            Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
+            Nxt.getBlockchainProcessor().addListener(Listeners.async(new Listener<Block>() {
                 @Override
                 public void notify(Block block) {
                     JSONObject response = new JSONObject();
@@ -485,7 +486,7 @@ public final class Users {
                     response.put("addedRecentBlocks", addedRecentBlocks);
                     Users.sendNewDataToAll(response);
                 }
-            }, BlockchainProcessor.Event.BLOCK_PUSHED);
+            }), BlockchainProcessor.Event.BLOCK_PUSHED);
 
             Generator.addListener(new Listener<Generator>() {
                 @Override
@@ -1,5 +1,6 @@
 package nxt.util;
 
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -22,6 +23,33 @@ public final class JSON {
         };
     }
 
+    /**
+     * Wraps already serialized JSON text, so that it can be added to a JSONObject or JSONArray and is written unchanged
+     */
+    public static JSONStreamAware prepare(String jsonString) {
+        return new PreparedJSON(jsonString);
+    }
+
+    private static final class PreparedJSON implements JSONStreamAware, JSONAware {
+
+        private final String jsonString;
+
+        private PreparedJSON(String jsonString) {
+            this.jsonString = jsonString;
+        }
+
+        @Override
+        public void writeJSONString(Writer out) throws IOException {
+            out.write(jsonString);
+        }
+
+        @Override
+        public String toJSONString() {
+            return jsonString;
+        }
+
+    }
+
     public static JSONStreamAware prepareRequest(final JSONObject json) {
         json.put("protocol", 1);
         return prepare(json);
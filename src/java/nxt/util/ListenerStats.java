@@ -0,0 +1,117 @@
+package nxt.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Notification count and execution time of the listeners registered with {@link Listeners}, by listener class and
+ * event. For an asynchronous listener the time is spent on its own thread, and the number of queued notifications
+ * the number of times its queue was full and the notifying thread had to wait, and the number of notifications dropped
+ * because the queue stayed full, are also kept.
+ */
+public final class ListenerStats {
+
+    private static final ConcurrentMap<String,ListenerStats> listenerStats = new ConcurrentHashMap<>();
+
+    public static Collection<ListenerStats> getAll() {
+        return Collections.unmodifiableCollection(new ArrayList<>(listenerStats.values()));
+    }
+
+    public static void reset() {
+        for (ListenerStats stats : listenerStats.values()) {
+            stats.count.set(0);
+            stats.totalNanos.set(0);
+            stats.maxNanos.set(0);
+            stats.queueFullCount.set(0);
+            stats.droppedCount.set(0);
+        }
+    }
+
+    static ListenerStats get(Listener<?> listener, Enum<?> eventType, boolean async) {
+        String name = listener.getClass().getName() + " " + eventType.name();
+        ListenerStats stats = listenerStats.get(name);
+        if (stats == null) {
+            stats = new ListenerStats(name, async);
+            ListenerStats previous = listenerStats.putIfAbsent(name, stats);
+            if (previous != null) {
+                stats = previous;
+            }
+        }
+        return stats;
+    }
+
+    private final String name;
+    private final boolean async;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong queueFullCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private ListenerStats(String name, boolean async) {
+        this.name = name;
+        this.async = async;
+    }
+
+    void record(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    void queued() {
+        queued.incrementAndGet();
+    }
+
+    void dequeued() {
+        queued.decrementAndGet();
+    }
+
+    void queueFull() {
+        queueFullCount.incrementAndGet();
+    }
+
+    void dropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getQueueFullCount() {
+        return queueFullCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+}
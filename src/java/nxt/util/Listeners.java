@@ -1,41 +1,207 @@
 package nxt.util;
 
+import nxt.Nxt;
+
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public final class Listeners<T,E extends Enum<E>> {
 
-    private final ConcurrentHashMap<Enum<E>, List<Listener<T>>> listenersMap = new ConcurrentHashMap<>();
+    /**
+     * Wraps a listener so that it is notified on its own thread, in the order of the notifications, instead of on the
+     * notifying thread. Up to nxt.asyncListenerQueueSize notifications are queued, when the queue is full the
+     * notifying thread waits for at most nxt.asyncListenerQueueTimeout milliseconds, then the notification is dropped,
+     * as the notifying thread may hold the blockchain lock and a database transaction. Only for listeners which do not
+     * need to see the state at the time of the event.
+     */
+    public static <T> Listener<T> async(Listener<T> listener) {
+        return new AsyncListener<>(listener);
+    }
+
+    public static boolean isAsync(Listener<?> listener) {
+        return listener instanceof AsyncListener;
+    }
+
+    private static final List<AsyncListener<?>> asyncListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Stops the threads of the asynchronous listeners, notifications still queued are dropped
+     */
+    public static void shutdown() {
+        if (asyncListeners.isEmpty()) {
+            return;
+        }
+        Logger.logShutdownMessage("Stopping asynchronous listeners...");
+        for (AsyncListener<?> asyncListener : asyncListeners) {
+            asyncListener.stop();
+        }
+        asyncListeners.clear();
+        Logger.logShutdownMessage("...Done");
+    }
+
+    private final ConcurrentHashMap<Enum<E>, List<Registration<T>>> listenersMap = new ConcurrentHashMap<>();
 
     public boolean addListener(Listener<T> listener, Enum<E> eventType) {
         synchronized (eventType) {
-            List<Listener<T>> listeners = listenersMap.get(eventType);
+            List<Registration<T>> listeners = listenersMap.get(eventType);
             if (listeners == null) {
                 listeners = new CopyOnWriteArrayList<>();
                 listenersMap.put(eventType, listeners);
             }
-            return listeners.add(listener);
+            return listeners.add(new Registration<>(listener, eventType));
         }
     }
 
     public boolean removeListener(Listener<T> listener, Enum<E> eventType) {
         synchronized (eventType) {
-            List<Listener<T>> listeners = listenersMap.get(eventType);
+            List<Registration<T>> listeners = listenersMap.get(eventType);
             if (listeners != null) {
-                return listeners.remove(listener);
+                for (Registration<T> registration : listeners) {
+                    if (registration.listener.equals(listener)) {
+                        return listeners.remove(registration);
+                    }
+                }
             }
         }
         return false;
     }
 
     public void notify(T t, Enum<E> eventType) {
-        List<Listener<T>> listeners = listenersMap.get(eventType);
+        List<Registration<T>> listeners = listenersMap.get(eventType);
         if (listeners != null) {
-            for (Listener<T> listener : listeners) {
+            for (Registration<T> registration : listeners) {
+                registration.notify(t);
+            }
+        }
+    }
+
+    private static final class Registration<T> {
+
+        private final Listener<T> listener;
+        private final ListenerStats stats;
+
+        private Registration(Listener<T> listener, Enum<?> eventType) {
+            this.listener = listener;
+            if (listener instanceof AsyncListener) {
+                this.stats = ListenerStats.get(((AsyncListener<T>) listener).listener, eventType, true);
+            } else {
+                this.stats = ListenerStats.get(listener, eventType, false);
+            }
+        }
+
+        private void notify(T t) {
+            if (listener instanceof AsyncListener) {
+                ((AsyncListener<T>) listener).submit(t, stats);
+                return;
+            }
+            long startTime = System.nanoTime();
+            try {
                 listener.notify(t);
+            } finally {
+                stats.record(System.nanoTime() - startTime);
             }
         }
+
+    }
+
+    private static final class AsyncListener<T> implements Listener<T> {
+
+        private static final int queueSize = Math.max(Nxt.getIntProperty("nxt.asyncListenerQueueSize"), 1);
+        private static final int queueTimeout = Nxt.getIntProperty("nxt.asyncListenerQueueTimeout");
+
+        private final Listener<T> listener;
+        private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueSize);
+        private final Thread thread;
+        private volatile boolean stopped;
+
+        private AsyncListener(final Listener<T> listener) {
+            this.listener = listener;
+            this.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stopped) {
+                        try {
+                            queue.take().run();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Throwable t) {
+                            // an error must not stop the thread, the notifying thread would wait for the full queue
+                            Logger.logErrorMessage("Error in asynchronous listener " + listener.getClass().getName()
+                                    + ": " + t.toString());
+                            t.printStackTrace();
+                        }
+                    }
+                }
+            }, "Listener " + listener.getClass().getName());
+            thread.setDaemon(true);
+            thread.start();
+            asyncListeners.add(this);
+        }
+
+        private void stop() {
+            stopped = true;
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void notify(T t) {
+            submit(t, null);
+        }
+
+        private void submit(final T t, final ListenerStats stats) {
+            if (stopped) {
+                return;
+            }
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    long startTime = System.nanoTime();
+                    try {
+                        listener.notify(t);
+                    } catch (RuntimeException e) {
+                        Logger.logErrorMessage("Error in asynchronous listener " + listener.getClass().getName(), e);
+                    } finally {
+                        if (stats != null) {
+                            stats.record(System.nanoTime() - startTime);
+                            stats.dequeued();
+                        }
+                    }
+                }
+            };
+            if (stats != null) {
+                stats.queued();
+            }
+            if (!queue.offer(task)) {
+                if (stats != null) {
+                    stats.queueFull();
+                }
+                boolean queued = false;
+                try {
+                    queued = queue.offer(task, queueTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!queued) {
+                    Logger.logDebugMessage("Queue of asynchronous listener " + listener.getClass().getName()
+                            + " is full, notification dropped");
+                    if (stats != null) {
+                        stats.dequeued();
+                        stats.dropped();
+                    }
+                }
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,77 @@
+package nxt.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scalable Bloom filter of long values. When the current filter holds as many values as it was sized for, a new one
+ * of twice the capacity and with more bits per value is added, so that the overall false positive rate stays bounded
+ * without rebuilding the filter from the values already added. Values cannot be removed, a removed value only becomes
+ * a false positive.
+ */
+public final class LongBloomFilter {
+
+    private static final int HASHES = 7;
+    private static final int BITS_PER_VALUE = 10;
+
+    private final List<long[]> filters = new ArrayList<>();
+    private long[] current;
+    private int capacity;
+    private int size;
+
+    public LongBloomFilter(int expectedValues) {
+        addFilter(Math.max(expectedValues, 1024));
+    }
+
+    public synchronized void add(long value) {
+        if (size >= capacity) {
+            addFilter(capacity * 2);
+        }
+        long bits = (long) current.length * 64;
+        long h1 = mix(value);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+            current[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size += 1;
+    }
+
+    /**
+     * Returns false if the value has certainly not been added
+     */
+    public synchronized boolean mightContain(long value) {
+        long h1 = mix(value);
+        long h2 = mix(h1) | 1;
+        for (long[] filter : filters) {
+            long bits = (long) filter.length * 64;
+            boolean found = true;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+                if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    found = false;
+                    break;
+                }
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addFilter(int capacity) {
+        this.capacity = capacity;
+        this.size = 0;
+        int bitsPerValue = BITS_PER_VALUE + 2 * filters.size();
+        this.current = new long[(int) (((long) capacity * bitsPerValue + 63) / 64)];
+        filters.add(current);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+}
@@ -1,11 +1,11 @@
 package nxt;
 
 import nxt.crypto.Crypto;
-import nxt.db.DbIterator;
 import nxt.util.Listener;
 import nxt.util.Logger;
 import org.junit.Assert;
 
+import java.util.List;
 import java.util.Properties;
 
 public abstract class AbstractBlockchainTest {
@@ -53,7 +53,7 @@ public abstract class AbstractBlockchainTest {
 
     protected static void shutdown() {
         TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
-        DbIterator<UnconfirmedTransaction> allUnconfirmedTransactions = transactionProcessor.getAllUnconfirmedTransactions();
+        List<UnconfirmedTransaction> allUnconfirmedTransactions = transactionProcessor.getAllUnconfirmedTransactions();
         for (UnconfirmedTransaction unconfirmedTransaction : allUnconfirmedTransactions) {
             transactionProcessor.removeUnconfirmedTransaction(unconfirmedTransaction.getTransaction());
         }
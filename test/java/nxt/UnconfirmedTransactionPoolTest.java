@@ -0,0 +1,193 @@
+package nxt;
+
+import nxt.db.BasicDb;
+import nxt.db.DbVersion;
+import nxt.db.TransactionalDb;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class UnconfirmedTransactionPoolTest {
+
+    private static final byte[] senderPublicKey1 = new byte[32];
+    private static final byte[] senderPublicKey2 = new byte[32];
+    private static long sender1;
+    private static long sender2;
+    private static TransactionalDb db;
+
+    private UnconfirmedTransactionPool pool;
+
+    @BeforeClass
+    public static void init() {
+        senderPublicKey1[0] = 1;
+        senderPublicKey2[0] = 2;
+        sender1 = Account.getId(senderPublicKey1);
+        sender2 = Account.getId(senderPublicKey2);
+        db = new TransactionalDb(new BasicDb.DbProperties()
+                .dbUrl("jdbc:h2:mem:unconfirmed_transaction_pool_test;DB_CLOSE_DELAY=-1")
+                .maxConnections(2)
+                .loginTimeout(10));
+        db.init("sa", "sa", new DbVersion() {
+            @Override
+            protected void update(int nextUpdate) {
+            }
+        });
+    }
+
+    @Before
+    public void createPool() {
+        pool = new UnconfirmedTransactionPool(db);
+    }
+
+    @After
+    public void endTransaction() {
+        if (db.isInTransaction()) {
+            db.rollbackTransaction();
+            db.endTransaction();
+        }
+    }
+
+    @Test
+    public void addAndRemove() throws Exception {
+        UnconfirmedTransaction t1 = newTransaction(1, senderPublicKey1, 100, 1000, 10);
+        UnconfirmedTransaction t2 = newTransaction(2, senderPublicKey1, 1, 2000, 20);
+        UnconfirmedTransaction t3 = newTransaction(3, senderPublicKey2, 1, 3000, 30);
+        Assert.assertTrue(pool.add(t1, 5));
+        Assert.assertTrue(pool.add(t2, 5));
+        Assert.assertTrue(pool.add(t3, 6));
+        Assert.assertFalse(pool.add(newTransaction(1, senderPublicKey2, 1, 4000, 40), 6));
+        Assert.assertEquals(3, pool.size());
+        Assert.assertTrue(pool.contains(2));
+        Assert.assertSame(t3, pool.get(3));
+        // highest fee per byte first, then by arrival
+        Assert.assertEquals(Arrays.asList(t1, t2, t3), pool.getAll());
+        Assert.assertEquals(Arrays.asList(t1, t2), pool.getByAccount(sender1));
+        Assert.assertEquals(Arrays.asList(t3), pool.getByAccount(sender2));
+        Assert.assertEquals(Arrays.asList(t1, t3), pool.getByAccount(recipientId(1)));
+        Assert.assertEquals(Arrays.asList(t2), pool.getByAccount(recipientId(2)));
+
+        Assert.assertSame(t2, pool.remove(2));
+        Assert.assertNull(pool.remove(2));
+        Assert.assertNull(pool.get(2));
+        Assert.assertFalse(pool.contains(2));
+        Assert.assertEquals(2, pool.size());
+        Assert.assertEquals(Arrays.asList(t1, t3), pool.getAll());
+        Assert.assertEquals(Arrays.asList(t1), pool.getByAccount(sender1));
+        Assert.assertTrue(pool.getByAccount(recipientId(2)).isEmpty());
+
+        Assert.assertSame(t1, pool.remove(1));
+        Assert.assertTrue(pool.getByAccount(sender1).isEmpty());
+        Assert.assertEquals(Arrays.asList(t3), pool.getByAccount(recipientId(1)));
+        Assert.assertEquals(Arrays.asList(t3), pool.getAll());
+    }
+
+    @Test
+    public void expiration() throws Exception {
+        UnconfirmedTransaction t1 = newTransaction(1, senderPublicKey1, 1, 1000, 10);
+        UnconfirmedTransaction t2 = newTransaction(2, senderPublicKey1, 1, 1000, 5);
+        pool.add(t1, 5);
+        pool.add(t2, 5);
+        Assert.assertTrue(pool.getExpired(t2.getExpiration()).isEmpty());
+        Assert.assertEquals(Arrays.asList(t2), pool.getExpired(t2.getExpiration() + 1));
+        Assert.assertEquals(Arrays.asList(t2, t1), pool.getExpired(t1.getExpiration() + 1));
+    }
+
+    @Test
+    public void removeAbove() throws Exception {
+        List<UnconfirmedTransaction> transactions = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            UnconfirmedTransaction transaction = newTransaction(i, senderPublicKey1, 1, 1000, 10);
+            transactions.add(transaction);
+            pool.add(transaction, i);
+        }
+        List<UnconfirmedTransaction> removed = pool.removeAbove(7);
+        Assert.assertEquals(3, removed.size());
+        Assert.assertTrue(removed.containsAll(transactions.subList(7, 10)));
+        Assert.assertEquals(7, pool.size());
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertEquals(i <= 7, pool.contains(i));
+        }
+        Assert.assertEquals(7, pool.getByAccount(sender1).size());
+        Assert.assertTrue(pool.removeAbove(7).isEmpty());
+        Assert.assertEquals(7, pool.removeAll().size());
+        Assert.assertEquals(0, pool.size());
+        Assert.assertTrue(pool.getAll().isEmpty());
+        Assert.assertTrue(pool.getByAccount(sender1).isEmpty());
+        Assert.assertTrue(pool.getExpired(Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void rollbackRestoresEntries() throws Exception {
+        UnconfirmedTransaction t1 = newTransaction(1, senderPublicKey1, 1, 1000, 10);
+        UnconfirmedTransaction t2 = newTransaction(2, senderPublicKey1, 1, 2000, 10);
+        UnconfirmedTransaction t3 = newTransaction(3, senderPublicKey2, 1, 3000, 10);
+        pool.add(t1, 5);
+        pool.add(t2, 6);
+        List<UnconfirmedTransaction> before = pool.getAll();
+
+        db.beginTransaction();
+        pool.remove(1);
+        pool.add(t3, 7);
+        Assert.assertEquals(1, pool.removeAbove(6).size());
+        // removed and added back in the same transaction
+        pool.remove(2);
+        pool.add(t2, 7);
+        Assert.assertEquals(Arrays.asList(t2), pool.getAll());
+        db.rollbackTransaction();
+        db.endTransaction();
+
+        Assert.assertEquals(before, pool.getAll());
+        Assert.assertNull(pool.get(3));
+        Assert.assertEquals(Arrays.asList(t1, t2), pool.getByAccount(sender1));
+        Assert.assertTrue(pool.getByAccount(sender2).isEmpty());
+        Assert.assertEquals(2, pool.getExpired(Integer.MAX_VALUE).size());
+        // the entry restored for t2 is the one added at height 6, not the one added at height 7
+        Assert.assertTrue(pool.removeAbove(6).isEmpty());
+    }
+
+    @Test
+    public void commitKeepsChanges() throws Exception {
+        UnconfirmedTransaction t1 = newTransaction(1, senderPublicKey1, 1, 1000, 10);
+        UnconfirmedTransaction t2 = newTransaction(2, senderPublicKey1, 1, 2000, 10);
+        pool.add(t1, 5);
+
+        db.beginTransaction();
+        pool.remove(1);
+        pool.add(t2, 5);
+        db.commitTransaction();
+        db.endTransaction();
+        Assert.assertEquals(Arrays.asList(t2), pool.getAll());
+
+        // a later rollback only undoes the changes made after the commit
+        db.beginTransaction();
+        pool.remove(2);
+        db.rollbackTransaction();
+        db.endTransaction();
+        Assert.assertEquals(Arrays.asList(t2), pool.getAll());
+    }
+
+    private static UnconfirmedTransaction newTransaction(long id, byte[] senderPublicKey, long feeNXT, long arrivalTimestamp,
+                                                         int deadline) throws NxtException.NotValidException {
+        TransactionImpl transaction = new TransactionImpl.BuilderImpl((byte) 1, senderPublicKey, Constants.ONE_NXT, feeNXT * Constants.ONE_NXT,
+                (short) deadline, Attachment.ORDINARY_PAYMENT)
+                .recipientId(recipientId(id))
+                .timestamp(20000000)
+                .ecBlockHeight(0)
+                .ecBlockId(0)
+                .id(id)
+                .build();
+        return new UnconfirmedTransaction(transaction, arrivalTimestamp);
+    }
+
+    // transactions with odd and even ids go to two recipients, distinct from the senders
+    private static long recipientId(long id) {
+        return 1000 + id % 2;
+    }
+
+}
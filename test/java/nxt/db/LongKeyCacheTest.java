@@ -0,0 +1,124 @@
+package nxt.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LongKeyCacheTest {
+
+    private static final DbKey.LongKeyFactory<Object> longKeyFactory = new DbKey.LongKeyFactory<Object>("id") {
+        @Override
+        public DbKey newKey(Object o) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static final DbKey.LinkKeyFactory<Object> linkKeyFactory = new DbKey.LinkKeyFactory<Object>("id_a", "id_b") {
+        @Override
+        public DbKey newKey(Object o) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Test
+    public void putGetRemove() {
+        DbCache<Object> cache = longKeyFactory.newCache();
+        Assert.assertNull(cache.get(longKeyFactory.newKey(1)));
+        cache.put(longKeyFactory.newKey(1), "a");
+        cache.put(longKeyFactory.newKey(0), "zero");
+        cache.put(longKeyFactory.newKey(-1), "minus");
+        Assert.assertEquals("a", cache.get(longKeyFactory.newKey(1)));
+        Assert.assertEquals("zero", cache.get(longKeyFactory.newKey(0)));
+        Assert.assertEquals("minus", cache.get(longKeyFactory.newKey(-1)));
+        cache.put(longKeyFactory.newKey(1), "b");
+        Assert.assertEquals("b", cache.get(longKeyFactory.newKey(1)));
+        cache.remove(longKeyFactory.newKey(1));
+        Assert.assertNull(cache.get(longKeyFactory.newKey(1)));
+        Assert.assertEquals("zero", cache.get(longKeyFactory.newKey(0)));
+        cache.remove(longKeyFactory.newKey(12345));
+        Assert.assertEquals("minus", cache.get(longKeyFactory.newKey(-1)));
+        cache.put(longKeyFactory.newKey(0), null);
+        Assert.assertNull(cache.get(longKeyFactory.newKey(0)));
+        cache.clear();
+        Assert.assertNull(cache.get(longKeyFactory.newKey(-1)));
+        cache.put(longKeyFactory.newKey(-1), "again");
+        Assert.assertEquals("again", cache.get(longKeyFactory.newKey(-1)));
+    }
+
+    @Test
+    public void linkKeys() {
+        DbCache<Object> cache = linkKeyFactory.newCache();
+        cache.put(linkKeyFactory.newKey(1, 2), "12");
+        cache.put(linkKeyFactory.newKey(2, 1), "21");
+        cache.put(linkKeyFactory.newKey(1, 0), "10");
+        Assert.assertEquals("12", cache.get(linkKeyFactory.newKey(1, 2)));
+        Assert.assertEquals("21", cache.get(linkKeyFactory.newKey(2, 1)));
+        Assert.assertEquals("10", cache.get(linkKeyFactory.newKey(1, 0)));
+        Assert.assertNull(cache.get(linkKeyFactory.newKey(0, 1)));
+        cache.remove(linkKeyFactory.newKey(1, 2));
+        Assert.assertNull(cache.get(linkKeyFactory.newKey(1, 2)));
+        Assert.assertEquals("21", cache.get(linkKeyFactory.newKey(2, 1)));
+        Assert.assertEquals("10", cache.get(linkKeyFactory.newKey(1, 0)));
+    }
+
+    @Test
+    public void growAndShrink() {
+        DbCache<Object> cache = longKeyFactory.newCache();
+        for (long id = 0; id < 10000; id++) {
+            cache.put(longKeyFactory.newKey(id), id);
+        }
+        for (long id = 0; id < 10000; id += 2) {
+            cache.remove(longKeyFactory.newKey(id));
+        }
+        for (long id = 0; id < 10000; id++) {
+            Assert.assertEquals(id % 2 == 0 ? null : id, cache.get(longKeyFactory.newKey(id)));
+        }
+        for (long id = 1; id < 10000; id += 2) {
+            cache.remove(longKeyFactory.newKey(id));
+        }
+        for (long id = 0; id < 10000; id++) {
+            Assert.assertNull(cache.get(longKeyFactory.newKey(id)));
+        }
+    }
+
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        DbCache<Object> cache = linkKeyFactory.newCache();
+        Map<DbKey,Object> expected = new HashMap<>();
+        List<DbKey> keys = new ArrayList<>();
+        // few distinct keys, so that puts, overwrites and removes hit the same probe runs
+        for (int i = 0; i < 500; i++) {
+            keys.add(linkKeyFactory.newKey(random.nextInt(50), random.nextLong()));
+        }
+        for (int i = 0; i < 100000; i++) {
+            DbKey dbKey = keys.get(random.nextInt(keys.size()));
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Integer value = i;
+                cache.put(dbKey, value);
+                expected.put(dbKey, value);
+            } else if (op < 9) {
+                cache.remove(dbKey);
+                expected.remove(dbKey);
+            } else if (random.nextInt(1000) == 0) {
+                cache.clear();
+                expected.clear();
+            }
+            if (i % 1000 == 0) {
+                for (DbKey key : keys) {
+                    Assert.assertEquals(expected.get(key), cache.get(key));
+                }
+            }
+        }
+        for (DbKey key : keys) {
+            Assert.assertEquals(expected.get(key), cache.get(key));
+        }
+    }
+
+}
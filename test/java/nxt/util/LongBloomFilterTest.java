@@ -0,0 +1,59 @@
+package nxt.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LongBloomFilterTest {
+
+    @Test
+    public void noFalseNegativesAcrossGrowth() {
+        // sized for 1024 values, so the filter grows several times
+        LongBloomFilter filter = new LongBloomFilter(0);
+        Random random = new Random(1);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+            filter.add(values[i]);
+            // the values added before each growth must still be found after it
+            if ((i & (i + 1)) == 0) {
+                for (int j = 0; j <= i; j++) {
+                    Assert.assertTrue(filter.mightContain(values[j]));
+                }
+            }
+        }
+        for (long value : values) {
+            Assert.assertTrue(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    public void extremeValues() {
+        LongBloomFilter filter = new LongBloomFilter(10);
+        long[] values = {0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long value : values) {
+            filter.add(value);
+        }
+        for (long value : values) {
+            Assert.assertTrue(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        LongBloomFilter filter = new LongBloomFilter(1000);
+        for (long value = 0; value < 50000; value++) {
+            filter.add(value);
+        }
+        int falsePositives = 0;
+        for (long value = 50000; value < 150000; value++) {
+            if (filter.mightContain(value)) {
+                falsePositives += 1;
+            }
+        }
+        // about 1% for each of the filters, a loose bound to only catch a filter which accepts everything
+        Assert.assertTrue("false positives " + falsePositives, falsePositives < 10000);
+    }
+
+}